@@ -1,6 +1,8 @@
 package com.cloudbees.jenkins.plugins.advisor;
 
 import com.cloudbees.jenkins.plugins.advisor.client.AdvisorClient;
+import com.cloudbees.jenkins.plugins.advisor.client.AdvisorMetrics;
+import com.cloudbees.jenkins.plugins.advisor.client.CircuitBreaker;
 import com.cloudbees.jenkins.plugins.advisor.client.model.AccountCredentials;
 import com.cloudbees.jenkins.plugins.advisor.utils.EmailUtil;
 import com.cloudbees.jenkins.plugins.advisor.utils.EmailValidator;
@@ -13,6 +15,7 @@ import hudson.Extension;
 import hudson.ExtensionPoint;
 import hudson.Functions;
 import hudson.PluginWrapper;
+import hudson.Util;
 import hudson.XmlFile;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
@@ -40,8 +43,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
@@ -63,6 +68,8 @@ public class AdvisorGlobalConfiguration
   private boolean nagDisabled;
   private boolean acceptToS;
   private String lastBundleResult;
+  private Map<String, String> componentDigests;
+  private String uploadWindows;
 
   @SuppressWarnings("unused")
   public AdvisorGlobalConfiguration() {
@@ -151,6 +158,147 @@ public class AdvisorGlobalConfiguration
     this.lastBundleResult = lastBundleResult;
   }
 
+  /**
+   * @return the per-component profile of the last bundle generations, most recent first.
+   */
+  @SuppressWarnings("unused")
+  public GenerationHistory getGenerationHistory() {
+    return GenerationHistory.get();
+  }
+
+  /**
+   * @return the periods of time during which bundles may be uploaded, one cron line per line, or {@code null} if
+   * uploads are allowed at any time.
+   */
+  @CheckForNull
+  @SuppressWarnings("WeakerAccess")
+  public String getUploadWindows() {
+    return uploadWindows;
+  }
+
+  @SuppressWarnings({"unused", "WeakerAccess"})
+  public void setUploadWindows(@CheckForNull String uploadWindows) {
+    this.uploadWindows = Util.fixEmptyAndTrim(uploadWindows);
+  }
+
+  /**
+   * @return the periodic task uploading the bundles.
+   */
+  @SuppressWarnings("unused")
+  public BundleUpload getBundleUpload() {
+    return Jenkins.getInstance().getExtensionList(BundleUpload.class).get(0);
+  }
+
+  /**
+   * @return the circuit breaker guarding the calls to the Advisor service.
+   */
+  @SuppressWarnings("unused")
+  public CircuitBreaker getCircuitBreaker() {
+    return CircuitBreaker.get();
+  }
+
+  /**
+   * Cancels the bundle generation and upload in progress, if any.
+   *
+   * @param req the request.
+   * @return a redirection to the management page.
+   */
+  @RequirePOST
+  @Nonnull
+  @Restricted(NoExternalUse.class)
+  @SuppressWarnings({"unused", "WeakerAccess"}) // stapler web method binding
+  public HttpResponse doCancelUpload(@Nonnull StaplerRequest req) {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    getBundleUpload().cancel("Cancelled by " + Jenkins.getAuthentication().getName());
+    return HttpResponses.redirectTo(req.getContextPath() + "/" + getUrlName());
+  }
+
+  /**
+   * Starts a bundle generation and upload without waiting for the next period. The run goes on in the background.
+   *
+   * @param req the request.
+   * @return a redirection to the management page, which shows the progress of the run.
+   */
+  @RequirePOST
+  @Nonnull
+  @Restricted(NoExternalUse.class)
+  @SuppressWarnings({"unused", "WeakerAccess"}) // stapler web method binding
+  public HttpResponse doUploadNow(@Nonnull StaplerRequest req) {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    String refused = getBundleUpload().trigger();
+    if (refused != null) {
+      return HttpResponses.error(409, refused);
+    }
+    return HttpResponses.redirectTo(req.getContextPath() + "/" + getUrlName());
+  }
+
+  /**
+   * Checks the connection to the Advisor service again in the background.
+   *
+   * @param req the request.
+   * @return a redirection to the management page, which shows the outcome once the check completes.
+   */
+  @RequirePOST
+  @Nonnull
+  @Restricted(NoExternalUse.class)
+  @SuppressWarnings({"unused", "WeakerAccess"}) // stapler web method binding
+  public HttpResponse doRefreshConnectionStatus(@Nonnull StaplerRequest req) {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    HealthProbe.get().refresh();
+    return HttpResponses.redirectTo(req.getContextPath() + "/" + getUrlName());
+  }
+
+  /**
+   * Serves the progress of the current or last bundle run as JSON.
+   *
+   * @return the progress, as returned by {@link UploadProgress#toJSON()}, or an {@code idle} phase if no bundle was
+   * generated since startup.
+   */
+  @Nonnull
+  @Restricted(NoExternalUse.class)
+  @SuppressWarnings({"unused", "WeakerAccess"}) // stapler web method binding
+  public HttpResponse doProgress() {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    UploadProgress progress = getBundleUpload().getProgress();
+    JSONObject json = progress != null ? progress.toJSON() : new JSONObject().element("phase", "idle");
+    return (req, rsp, node) -> {
+      rsp.setContentType("application/json;charset=UTF-8");
+      rsp.setHeader("Cache-Control", "no-cache");
+      rsp.getWriter().print(json.toString());
+    };
+  }
+
+  /**
+   * Serves the upload and generation metrics as JSON, for monitoring systems that do not read JMX.
+   *
+   * @return the metrics, as returned by {@link AdvisorMetrics#toJSON()}.
+   */
+  @Nonnull
+  @Restricted(NoExternalUse.class)
+  @SuppressWarnings({"unused", "WeakerAccess"}) // stapler web method binding
+  public HttpResponse doMetrics() {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    JSONObject metrics = AdvisorMetrics.get().toJSON();
+    return (req, rsp, node) -> {
+      rsp.setContentType("application/json;charset=UTF-8");
+      rsp.setHeader("Cache-Control", "no-cache");
+      rsp.getWriter().print(metrics.toString());
+    };
+  }
+
+  /**
+   * @return the digest of each component's output, by component id, as of the last successful upload.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public Map<String, String> getComponentDigests() {
+    return componentDigests != null ? componentDigests : Collections.emptyMap();
+  }
+
+  @SuppressWarnings("WeakerAccess")
+  public void setComponentDigests(Map<String, String> componentDigests) {
+    this.componentDigests = new HashMap<>(componentDigests);
+  }
+
   /**
    * Handles the form submission
    *
@@ -171,6 +319,8 @@ public class AdvisorGlobalConfiguration
     try {
       isValid = configureDescriptor(req, req.getSubmittedForm(), getDescriptor());
       save();
+      // the email may have changed
+      HealthProbe.get().refresh();
 
       return HttpResponses.redirectTo(isValid
           ? req.getContextPath() + "/manage"
@@ -339,6 +489,12 @@ public class AdvisorGlobalConfiguration
     }
 
 
+    @SuppressWarnings({"unused", "WeakerAccess"})
+    public FormValidation doCheckUploadWindows(@QueryParameter String value) {
+      String error = UploadWindows.validate(value);
+      return error != null ? FormValidation.error(error) : FormValidation.ok();
+    }
+
     @SuppressWarnings({"unused", "WeakerAccess"})
     public FormValidation doTestConnection(@QueryParameter("email") final String email, @QueryParameter("cc") final String cc) {
       try {
@@ -349,24 +505,38 @@ public class AdvisorGlobalConfiguration
         if (ccErrors.isPresent()) {
           return ccErrors.get();
         }
-        AdvisorClient advisorClient = new AdvisorClient(new AccountCredentials(email.trim()));
-
-        advisorClient.doCheckHealth();
+        // the email may not be saved yet, so the outcome is not shown as the status of the connection
+        HealthProbe.Status status = HealthProbe.check(email.trim());
+        if (!status.isConnected()) {
+          return FormValidation.error("Client error : " + status.getMessage());
+        }
         return FormValidation.ok("Success");
       } catch (Exception e) {
         return FormValidation.error("Client error : "+e.getMessage());
       }
     }
 
+    /**
+     * @return the cached outcome of the last connection check, or {@code null} if there was none yet. A check is
+     * started in the background if the outcome is missing or stale, so that rendering the page never waits for it.
+     */
+    @CheckForNull
     @SuppressWarnings("unused")
-    public String connectionTest(String credentials) {
-      try {
-        AdvisorClient advisorClient = new AdvisorClient(new AccountCredentials(credentials));
-        advisorClient.doCheckHealth();
-        return "  You are connected to CloudBees Jenkins Advisor!";
-      } catch(Exception e) {
-        return "" + e.getMessage();
+    public HealthProbe.Status getConnectionStatus() {
+      HealthProbe probe = HealthProbe.get();
+      if (probe.isStale()) {
+        probe.refresh();
       }
+      return probe.getStatus();
+    }
+
+    /**
+     * @return why the connection is not checked in the background, or {@code null} if it is.
+     */
+    @CheckForNull
+    @SuppressWarnings("unused")
+    public String getConnectionSkipReason() {
+      return HealthProbe.getSkipReason(AdvisorGlobalConfiguration.getInstance());
     }
 
     @SuppressWarnings({"unused", "WeakerAccess"})
@@ -382,7 +552,7 @@ public class AdvisorGlobalConfiguration
 
         AdvisorClient advisorClient = new AdvisorClient(new AccountCredentials(email.trim()));
 
-        advisorClient.doTestEmail();
+        HealthProbe.await(advisorClient.testEmailAsync());
         return FormValidation.ok("Sending email.  Please check your inbox and filters.");
       } catch (Exception e) {
         return FormValidation.error("Client error : "+e.getMessage());
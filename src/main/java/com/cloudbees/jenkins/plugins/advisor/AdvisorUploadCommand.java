@@ -0,0 +1,33 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+
+/**
+ * Starts a bundle generation and upload from the CLI, e.g. to check a fix without waiting for the next period.
+ * The command returns once the run is started; its progress is served at
+ * {@code JENKINS_URL/cloudbees-jenkins-advisor/progress}.
+ */
+@Extension
+public class AdvisorUploadCommand extends CLICommand {
+
+  @Override
+  public String getShortDescription() {
+    return "Generates and uploads a bundle to CloudBees Jenkins Advisor in the background.";
+  }
+
+  @Override
+  protected int run() {
+    Jenkins jenkins = Jenkins.getInstance();
+    jenkins.checkPermission(Jenkins.ADMINISTER);
+    String refused = jenkins.getExtensionList(BundleUpload.class).get(0).trigger();
+    if (refused != null) {
+      stderr.println(refused);
+      return 1;
+    }
+    stdout.println("Bundle upload started. Follow its progress at JENKINS_URL/"
+        + AdvisorGlobalConfiguration.PLUGIN_NAME + "/progress");
+    return 0;
+  }
+}
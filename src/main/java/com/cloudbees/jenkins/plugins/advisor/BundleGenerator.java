@@ -0,0 +1,626 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.support.api.Component;
+import com.cloudbees.jenkins.support.api.Container;
+import com.cloudbees.jenkins.support.api.Content;
+import hudson.Functions;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a support bundle from a list of {@link Component}s.
+ *
+ * <p>This mirrors what {@code SupportPlugin.writeBundle} does, but keeps track of the output of each component
+ * separately. Every component's output is hashed, so that a delta bundle can leave out the components whose output
+ * did not change since the last successful upload. Those are listed with their digest in
+ * {@value #UNCHANGED_COMPONENTS} instead.</p>
+ *
+ * <p>When a delta is requested, the output of each component is staged in a temporary directory first, because
+ * whether it goes into the bundle is only known once it has been completely written. Components are also staged
+ * when they are generated in parallel.</p>
+ */
+final class BundleGenerator {
+
+  private static final Logger LOG = Logger.getLogger(BundleGenerator.class.getName());
+
+  static final String MANIFEST = "manifest.md";
+  static final String ERRORS = "manifest/errors.txt";
+  static final String UNCHANGED_COMPONENTS = "manifest/unchanged-components.txt";
+
+  /**
+   * Time given to the components still being generated to stop once the generation failed or was cancelled.
+   */
+  static final int STOP_TIMEOUT_SECONDS = 60;
+
+  private final List<Component> components;
+  private Map<String, String> previousDigests;
+  private int parallelism = 1;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private CpuBudget cpuBudget = new CpuBudget(0);
+  private UploadProgress progress = new UploadProgress();
+
+  private final Map<String, String> digests = new LinkedHashMap<>();
+  private final List<String> unchangedComponents = new ArrayList<>();
+  private final List<GenerationHistory.ComponentStatistics> statistics = new ArrayList<>();
+  private long startTime;
+  private long durationMillis;
+
+  BundleGenerator(List<Component> components) {
+    this.components = components;
+  }
+
+  /**
+   * Requests a delta bundle.
+   *
+   * @param previousDigests the digest of each component's output, by component id, as of the last successful upload.
+   * @return this generator.
+   */
+  BundleGenerator withPreviousDigests(@CheckForNull Map<String, String> previousDigests) {
+    this.previousDigests = previousDigests;
+    return this;
+  }
+
+  /**
+   * Generates up to {@code parallelism} components concurrently. Each one is staged in its own temporary directory
+   * and the bundle is assembled in the order of the components, so its layout does not depend on the parallelism.
+   *
+   * @param parallelism the maximum number of components generated at the same time.
+   * @return this generator.
+   */
+  BundleGenerator withParallelism(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+    return this;
+  }
+
+  /**
+   * Sets the compression level of the zip entries. Use {@link Deflater#NO_COMPRESSION} when the bundle is compressed
+   * again as a whole, by a {@link com.cloudbees.jenkins.plugins.advisor.client.BundleCodec}.
+   *
+   * @param compressionLevel a {@link Deflater} compression level.
+   * @return this generator.
+   */
+  BundleGenerator withCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+    return this;
+  }
+
+  /**
+   * @param progress updated with the component being generated and the bytes of the bundle written.
+   * @return this generator.
+   */
+  BundleGenerator withProgress(UploadProgress progress) {
+    this.progress = progress;
+    return this;
+  }
+
+  /**
+   * Paces the generation so that it stays within a share of one core. Each component is charged with the CPU time
+   * it took, and the run pauses between components while it is over budget.
+   *
+   * @param cpuBudget the budget of the run.
+   * @return this generator.
+   */
+  BundleGenerator withCpuBudget(CpuBudget cpuBudget) {
+    this.cpuBudget = cpuBudget;
+    return this;
+  }
+
+  /**
+   * @return the digest of each component's output, by component id, once the bundle has been written.
+   */
+  Map<String, String> getDigests() {
+    return Collections.unmodifiableMap(digests);
+  }
+
+  /**
+   * @return the ids of the components left out of a delta bundle because their output did not change.
+   */
+  List<String> getUnchangedComponents() {
+    return Collections.unmodifiableList(unchangedComponents);
+  }
+
+  /**
+   * @return the cost of generating each component, once the bundle has been written.
+   */
+  GenerationHistory.Run getProfile() {
+    return new GenerationHistory.Run(startTime, durationMillis, statistics);
+  }
+
+  /**
+   * Writes the bundle as a zip. The stream is not closed.
+   *
+   * @param out the stream to write the bundle to.
+   * @throws IOException if the bundle cannot be written.
+   */
+  void writeTo(OutputStream out) throws IOException {
+    startTime = System.currentTimeMillis();
+    long start = System.nanoTime();
+    progress.startGeneration(components.size());
+    ZipOutputStream zip = new ZipOutputStream(progress.countWritten(new NonClosingOutputStream(out)));
+    zip.setLevel(compressionLevel);
+    StringBuilder manifest = new StringBuilder();
+    StringBuilder errors = new StringBuilder();
+    BundleWriter writer = new BundleWriter(zip);
+
+    manifest.append("Support Bundle Manifest").append('\n')
+        .append("=======================").append('\n').append('\n')
+        .append("Generated on ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSZ").format(Calendar.getInstance().getTime()))
+        .append('\n').append('\n')
+        .append("Requested components:").append('\n').append('\n');
+
+    boolean staged = previousDigests != null || parallelism > 1;
+    File stagingDir = staged ? Files.createTempDirectory("advisor-bundle").toFile() : null;
+    ExecutorService executor = parallelism > 1 && components.size() > 1 ? BundleWorkers.generators() : null;
+    List<Future<ComponentOutput>> generated = new ArrayList<>();
+    List<ComponentTask> tasks = new ArrayList<>();
+    try {
+      if (executor != null) {
+        Authentication authentication = Jenkins.getAuthentication();
+        for (int i = 0; i < components.size(); i++) {
+          ComponentTask task = new ComponentTask(i, stagingDir, writer, authentication);
+          tasks.add(task);
+          generated.add(executor.submit(task));
+        }
+      }
+
+      for (int i = 0; i < components.size(); i++) {
+        checkInterrupted();
+        Component component = components.get(i);
+        progress.startComponent(i, component.getDisplayName());
+        ComponentOutput output = executor != null ? await(generated.get(i)) : generate(i, stagingDir, writer);
+        digests.put(component.getId(), output.digest);
+        statistics.add(output.statistics);
+        errors.append(output.errors);
+
+        if (previousDigests != null && output.digest.equals(previousDigests.get(component.getId()))) {
+          unchangedComponents.add(component.getId());
+          output.discard();
+          continue;
+        }
+        long cpuStart = CpuBudget.currentThreadCpuTime();
+        output.commit(writer);
+        chargeAndPace(cpuStart);
+        manifest.append("  * ").append(component.getDisplayName()).append('\n').append('\n');
+        for (String name : output.names) {
+          manifest.append("      - `").append(name).append('`').append('\n');
+        }
+        manifest.append('\n');
+      }
+
+      if (!unchangedComponents.isEmpty()) {
+        StringBuilder unchanged = new StringBuilder();
+        for (String id : unchangedComponents) {
+          unchanged.append(id).append(' ').append(digests.get(id)).append('\n');
+        }
+        writer.write(UNCHANGED_COMPONENTS, unchanged.toString());
+      }
+      writer.write(MANIFEST, manifest.toString());
+      if (errors.length() > 0) {
+        writer.write(ERRORS, errors.toString());
+      }
+      zip.finish();
+      zip.flush();
+      durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    } finally {
+      progress.endGeneration();
+      // the pool is shared, only the tasks of this run are stopped
+      boolean stopped = true;
+      for (int i = 0; i < tasks.size(); i++) {
+        stopped &= tasks.get(i).stop(generated.get(i));
+      }
+      if (stagingDir != null) {
+        if (stopped) {
+          deleteRecursively(stagingDir);
+        } else {
+          LOG.warning("Components of the bundle are still being generated, leaving their staging directory "
+              + stagingDir + " behind");
+        }
+      }
+    }
+  }
+
+  /**
+   * A component generated on the pool. Cancelling its future does not wait for it to stop, so the generation waits
+   * for it with {@link #stop(Future)} before deleting the directory it writes to.
+   */
+  private final class ComponentTask implements Callable<ComponentOutput> {
+    private final int index;
+    private final File stagingDir;
+    private final BundleWriter writer;
+    private final Authentication authentication;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private ComponentTask(int index, @CheckForNull File stagingDir, BundleWriter writer,
+                          Authentication authentication) {
+      this.index = index;
+      this.stagingDir = stagingDir;
+      this.writer = writer;
+      this.authentication = authentication;
+    }
+
+    @Override
+    public ComponentOutput call() throws IOException {
+      if (!claimed.compareAndSet(false, true)) {
+        throw new InterruptedIOException("Bundle generation was cancelled");
+      }
+      try (ACLContext ignored = ACL.as(authentication)) {
+        return generate(index, stagingDir, writer);
+      } finally {
+        finished.countDown();
+      }
+    }
+
+    /**
+     * Prevents the task from starting, or interrupts it and waits for it to stop if it already started.
+     *
+     * @return {@code true} if the task is not running anymore.
+     */
+    boolean stop(Future<ComponentOutput> future) {
+      if (claimed.compareAndSet(false, true)) {
+        future.cancel(false);
+        return true;
+      }
+      future.cancel(true);
+      boolean interrupted = false;
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SECONDS);
+      try {
+        while (true) {
+          try {
+            return finished.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+          } catch (InterruptedException e) {
+            // the run itself may be the one being cancelled, it still waits for its tasks
+            interrupted = true;
+          }
+        }
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a single component, either staged under its own directory or straight into the bundle.
+   */
+  private ComponentOutput generate(int index, @CheckForNull File stagingDir, BundleWriter writer) throws IOException {
+    Component component = components.get(index);
+    ComponentOutput output = stagingDir != null
+        ? new StagedComponentOutput(new File(stagingDir, Integer.toString(index)))
+        : new DirectComponentOutput(writer);
+
+    long start = System.nanoTime();
+    long cpuStart = CpuBudget.currentThreadCpuTime();
+    long allocatedStart = currentThreadAllocatedBytes();
+    writeComponent(component, output, output.errors);
+    long cpuEnd = CpuBudget.currentThreadCpuTime();
+    long allocatedEnd = currentThreadAllocatedBytes();
+
+    output.digest = toHex(output.messageDigest.digest());
+    output.statistics = new GenerationHistory.ComponentStatistics(component.getId(), component.getDisplayName(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+        cpuStart < 0 || cpuEnd < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(cpuEnd - cpuStart),
+        allocatedStart < 0 || allocatedEnd < 0 ? -1 : allocatedEnd - allocatedStart,
+        output.outputBytes);
+    if (cpuStart >= 0 && cpuEnd >= 0) {
+      cpuBudget.charge(cpuEnd - cpuStart);
+    }
+    pace();
+    return output;
+  }
+
+  private void chargeAndPace(long cpuStart) throws IOException {
+    long cpuEnd = CpuBudget.currentThreadCpuTime();
+    if (cpuStart >= 0 && cpuEnd >= 0) {
+      cpuBudget.charge(cpuEnd - cpuStart);
+    }
+    pace();
+  }
+
+  private void pace() throws IOException {
+    try {
+      cpuBudget.pace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while generating the bundle");
+    }
+  }
+
+  /**
+   * @return the bytes allocated by the current thread, or {@code -1} if the JVM cannot measure them.
+   */
+  static long currentThreadAllocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Stops the generation between components once the run was cancelled.
+   */
+  private static void checkInterrupted() throws InterruptedIOException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedIOException("Bundle generation was cancelled");
+    }
+  }
+
+  private static ComponentOutput await(Future<ComponentOutput> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while generating the bundle");
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to generate a component of the bundle", e.getCause());
+    }
+  }
+
+  private static void writeComponent(Component component, ComponentOutput output, StringBuilder errors) {
+    List<Content> contents = new ArrayList<>();
+    try {
+      component.addContents(new Container() {
+        @Override
+        public void add(@CheckForNull Content content) {
+          if (content != null) {
+            contents.add(content);
+          }
+        }
+      });
+    } catch (Throwable t) {
+      recordError(errors, component.getDisplayName(), null, t);
+    }
+
+    for (Content content : contents) {
+      try {
+        output.write(content);
+      } catch (Throwable t) {
+        recordError(errors, component.getDisplayName(), content.getName(), t);
+      }
+    }
+  }
+
+  private static void recordError(StringBuilder errors, String component, @CheckForNull String content, Throwable t) {
+    String message = content == null
+        ? String.format("Could not gather contents of component %s", component)
+        : String.format("Could not write %s of component %s", content, component);
+    LOG.log(Level.WARNING, message, t);
+    errors.append(message).append('\n').append(Functions.printThrowable(t)).append('\n');
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    if (!file.delete() && file.exists()) {
+      LOG.log(Level.FINE, "Unable to delete temporary bundle file {0}", file);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Writes entries into the bundle, skipping duplicate names which a zip cannot hold.
+   */
+  private static final class BundleWriter {
+    private final ZipOutputStream zip;
+    private final Set<String> names = new HashSet<>();
+
+    private BundleWriter(ZipOutputStream zip) {
+      this.zip = zip;
+    }
+
+    private OutputStream putEntry(String name) throws IOException {
+      if (!names.add(name)) {
+        LOG.log(Level.WARNING, "Skipping duplicate bundle entry {0}", name);
+        return null;
+      }
+      zip.putNextEntry(new ZipEntry(name));
+      return new NonClosingOutputStream(zip) {
+        @Override
+        public void close() throws IOException {
+          zip.closeEntry();
+        }
+      };
+    }
+
+    private void write(String name, String text) throws IOException {
+      OutputStream entry = putEntry(name);
+      if (entry != null) {
+        try (OutputStream os = entry) {
+          os.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  /**
+   * Receives the output of a single component and hashes it.
+   */
+  private abstract static class ComponentOutput {
+    private final MessageDigest messageDigest = newDigest();
+    final List<String> names = new ArrayList<>();
+    final StringBuilder errors = new StringBuilder();
+    String digest;
+    long outputBytes;
+    GenerationHistory.ComponentStatistics statistics;
+
+    void write(Content content) throws IOException {
+      String name = content.getName();
+      OutputStream entry = open(name);
+      if (entry == null) {
+        return;
+      }
+      names.add(name);
+      messageDigest.update(name.getBytes(StandardCharsets.UTF_8));
+      messageDigest.update((byte) 0);
+      CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(entry, messageDigest));
+      try (OutputStream os = counter) {
+        content.writeTo(os);
+      } finally {
+        outputBytes += counter.getByteCount();
+      }
+    }
+
+    /**
+     * @return a stream for the entry, closed once the content is written, or {@code null} to skip it.
+     */
+    abstract OutputStream open(String name) throws IOException;
+
+    /**
+     * Adds the output of the component to the bundle, if it was not written there directly.
+     */
+    abstract void commit(BundleWriter writer) throws IOException;
+
+    /**
+     * Drops the output of the component.
+     */
+    abstract void discard();
+  }
+
+  /**
+   * Writes the component straight into the bundle.
+   */
+  private static final class DirectComponentOutput extends ComponentOutput {
+    private final BundleWriter writer;
+
+    private DirectComponentOutput(BundleWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    OutputStream open(String name) throws IOException {
+      return writer.putEntry(name);
+    }
+
+    @Override
+    void commit(BundleWriter writer) {
+      // already in the bundle
+    }
+
+    @Override
+    void discard() {
+      throw new IllegalStateException("A component written directly to the bundle cannot be discarded");
+    }
+  }
+
+  /**
+   * Stages the component in a directory, one file per entry, until it is known whether it belongs in the bundle.
+   */
+  private static final class StagedComponentOutput extends ComponentOutput {
+    private final File dir;
+    private final List<File> files = new ArrayList<>();
+
+    private StagedComponentOutput(File dir) {
+      this.dir = dir;
+    }
+
+    @Override
+    OutputStream open(String name) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Unable to create staging directory " + dir);
+      }
+      File file = new File(dir, Integer.toString(files.size()));
+      files.add(file);
+      return new FileOutputStream(file);
+    }
+
+    @Override
+    void commit(BundleWriter writer) throws IOException {
+      for (int i = 0; i < names.size(); i++) {
+        OutputStream entry = writer.putEntry(names.get(i));
+        if (entry != null) {
+          try (OutputStream os = entry) {
+            Files.copy(files.get(i).toPath(), os);
+          }
+        }
+      }
+      discard();
+    }
+
+    @Override
+    void discard() {
+      deleteRecursively(dir);
+    }
+  }
+
+  /**
+   * Shields the underlying stream from being closed by the zip or by a {@link Content}.
+   */
+  private static class NonClosingOutputStream extends FilterOutputStream {
+    private NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
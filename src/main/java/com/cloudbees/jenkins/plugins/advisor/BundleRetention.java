@@ -0,0 +1,193 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.plugins.advisor.client.ResumableUpload;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes the bundles generated by the plugin once they are no longer needed, so that they do not pile up in the
+ * support directory. Bundles written there by the support-core plugin itself are left alone: only the bundles
+ * registered here are considered.
+ *
+ * <p>The newest {@link #KEEP_LAST} bundles are kept, as long as they are younger than {@link #MAX_AGE_HOURS} and fit
+ * in {@link #MAX_SIZE_MEGABYTES}. A bundle that is still to be uploaded is never deleted.</p>
+ */
+@Extension
+public class BundleRetention implements Saveable {
+
+  private static final Logger LOG = Logger.getLogger(BundleRetention.class.getName());
+
+  /**
+   * Number of uploaded bundles kept. {@code 0} deletes a bundle as soon as it is uploaded.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int KEEP_LAST = Integer.getInteger(BundleRetention.class.getName() + ".keepLast", 3);
+
+  /**
+   * Age beyond which a bundle is deleted.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int MAX_AGE_HOURS = Integer.getInteger(BundleRetention.class.getName() + ".maxAgeHours", 168);
+
+  /**
+   * Total size of the bundles kept, in megabytes.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int MAX_SIZE_MEGABYTES = Integer.getInteger(
+      BundleRetention.class.getName() + ".maxSizeMegabytes", 500);
+
+  /**
+   * Paths of the bundles generated by the plugin, oldest first.
+   */
+  private final List<String> bundles = new ArrayList<>();
+
+  @SuppressWarnings("unused")
+  public BundleRetention() {
+    load();
+  }
+
+  public static BundleRetention get() {
+    return Jenkins.getInstance().getExtensionList(BundleRetention.class).get(0);
+  }
+
+  /**
+   * Applies the retention at startup, to catch up with the bundles left by the previous run.
+   */
+  @Initializer(after = InitMilestone.JOB_LOADED)
+  @SuppressWarnings("unused")
+  public static void cleanAtStartup() {
+    Reclaimed reclaimed = get().clean(BundleUpload.getBundlesToUpload());
+    if (reclaimed.getBundles() > 0) {
+      LOG.info("Deleted " + reclaimed + " at startup");
+    }
+  }
+
+  synchronized void register(File bundle) {
+    bundles.add(bundle.getAbsolutePath());
+    save();
+  }
+
+  /**
+   * Deletes the bundles the retention does not keep.
+   *
+   * @param pending the bundles still to be uploaded, which are kept regardless of the retention.
+   * @return what was deleted.
+   */
+  synchronized Reclaimed clean(Collection<File> pending) {
+    return clean(pending, KEEP_LAST, TimeUnit.HOURS.toMillis(MAX_AGE_HOURS), MAX_SIZE_MEGABYTES * 1024L * 1024L);
+  }
+
+  synchronized Reclaimed clean(Collection<File> pending, int keepLast, long maxAgeMillis, long maxBytes) {
+    long now = System.currentTimeMillis();
+    int kept = 0;
+    long keptBytes = 0;
+    Reclaimed reclaimed = new Reclaimed();
+    int tracked = bundles.size();
+    List<String> newestFirst = new ArrayList<>(bundles);
+    Collections.reverse(newestFirst);
+    for (String path : newestFirst) {
+      File bundle = new File(path);
+      if (!bundle.isFile()) {
+        // deleted by hand, or moved to the outbox
+        bundles.remove(path);
+        continue;
+      }
+      long length = bundle.length();
+      if (pending.contains(bundle.getAbsoluteFile()) || ResumableUpload.isPending(bundle)) {
+        keptBytes += length;
+        continue;
+      }
+      if (kept < keepLast && now - bundle.lastModified() <= maxAgeMillis && keptBytes + length <= maxBytes) {
+        kept++;
+        keptBytes += length;
+        continue;
+      }
+      if (bundle.delete()) {
+        bundles.remove(path);
+        reclaimed.add(length);
+      } else {
+        LOG.warning("Unable to delete bundle " + bundle);
+      }
+    }
+    if (bundles.size() != tracked) {
+      save();
+    }
+    return reclaimed;
+  }
+
+  /**
+   * @return the bundles currently tracked, oldest first.
+   */
+  synchronized List<File> getBundles() {
+    List<File> files = new ArrayList<>();
+    for (String path : bundles) {
+      files.add(new File(path));
+    }
+    return files;
+  }
+
+  @Override
+  public synchronized void save() {
+    try {
+      getConfigFile().write(this);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to save " + getConfigFile(), e);
+    }
+  }
+
+  private synchronized void load() {
+    XmlFile file = getConfigFile();
+    if (!file.exists()) {
+      return;
+    }
+    try {
+      file.unmarshal(this);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to load " + file, e);
+    }
+  }
+
+  private XmlFile getConfigFile() {
+    return new XmlFile(new File(Jenkins.getInstance().getRootDir(), getClass().getName() + ".xml"));
+  }
+
+  /**
+   * The bundles deleted by a cleanup.
+   */
+  static final class Reclaimed {
+    private int bundles;
+    private long bytes;
+
+    void add(long length) {
+      bundles++;
+      bytes += length;
+    }
+
+    int getBundles() {
+      return bundles;
+    }
+
+    long getBytes() {
+      return bytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d old bundles (%s)", bundles, GenerationHistory.formatBytes(bytes));
+    }
+  }
+}
@@ -1,28 +1,56 @@
 package com.cloudbees.jenkins.plugins.advisor;
 
 import com.cloudbees.jenkins.plugins.advisor.client.AdvisorClient;
+import com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig;
+import com.cloudbees.jenkins.plugins.advisor.client.AdvisorMetrics;
+import com.cloudbees.jenkins.plugins.advisor.client.BundleCodec;
+import com.cloudbees.jenkins.plugins.advisor.client.CircuitBreaker;
+import com.cloudbees.jenkins.plugins.advisor.client.HttpStatusException;
 import com.cloudbees.jenkins.plugins.advisor.client.PluginHelper;
+import com.cloudbees.jenkins.plugins.advisor.client.ResumableUpload;
+import com.cloudbees.jenkins.plugins.advisor.client.Timeouts;
 import com.cloudbees.jenkins.plugins.advisor.client.model.AccountCredentials;
 import com.cloudbees.jenkins.plugins.advisor.client.model.ClientResponse;
 import com.cloudbees.jenkins.plugins.advisor.client.model.ClientUploadRequest;
 import com.cloudbees.jenkins.support.SupportPlugin;
+import com.cloudbees.jenkins.support.api.Component;
 import hudson.Extension;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.AsyncPeriodicWork;
 import hudson.model.TaskListener;
+import hudson.scheduler.Hash;
 import hudson.security.ACL;
 import hudson.security.ACLContext;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.jenkinsci.Symbol;
 
+import javax.annotation.CheckForNull;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 @Extension
 @Symbol("bundleUpload")
@@ -36,8 +64,109 @@ public class BundleUpload extends AsyncPeriodicWork {
   public static final int INITIAL_DELAY_MINUTES = Integer.getInteger(
           BundleUpload.class.getName()+".initialDelayMinutes", 30);
 
+  /**
+   * Width of the window over which the uploads of a fleet of instances are spread. Each instance waits a fixed
+   * offset within this window, derived from its instance id. {@code 0} disables the offset.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int SPREAD_WINDOW_MINUTES = Integer.getInteger(
+          BundleUpload.class.getName()+".spreadWindowMinutes", 60);
+
+  /**
+   * When enabled the bundle is written straight into the upload request instead of being saved to disk first.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final boolean PIPELINED_UPLOAD = Boolean.getBoolean(
+          BundleUpload.class.getName()+".pipelinedUpload");
+
+  /**
+   * When enabled only the components whose output changed since the last successful upload are sent.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final boolean DELTA_BUNDLES = Boolean.getBoolean(
+          BundleUpload.class.getName()+".deltaBundles");
+
+  /**
+   * Maximum number of components generated concurrently. {@code 1}, the default, generates them one after another
+   * straight into the bundle. More threads stage the output of each component in {@code java.io.tmpdir}, see
+   * {@link BundleGenerator}, so generating in parallel is opt-in.
+   *
+   * <p>The components of support-core read the state of the controller and write it to their own entries, so they
+   * can run side by side. The ones that sample the controller, like thread dumps, also capture the other generation
+   * threads, and the ones that call agents wait on the remoting channel rather than on the CPU.</p>
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int GENERATION_THREADS = Math.max(1, Integer.getInteger(
+          BundleUpload.class.getName()+".generationThreads", 1));
+
+  /**
+   * When enabled the upload is deferred while the controller is starting up or busy, see {@link LoadMonitor}.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final boolean LOAD_AWARE = Boolean.parseBoolean(
+          System.getProperty(BundleUpload.class.getName()+".loadAware", "false"));
+
+  /**
+   * Time to wait before checking the load again after an upload was deferred.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int DEFERRAL_INTERVAL_MINUTES = Integer.getInteger(
+          BundleUpload.class.getName()+".deferralIntervalMinutes", 15);
+
+  /**
+   * Maximum time an upload can be deferred because of the load. Past that, the bundle is sent anyway.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int MAX_DEFERRAL_HOURS = Integer.getInteger(
+          BundleUpload.class.getName()+".maxDeferralHours", 6);
+
+  /**
+   * Share of one core, in percent, that a bundle run may use. The run pauses between components while it is over
+   * budget. {@code 0} disables the limit.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int CPU_BUDGET_PERCENT = Integer.getInteger(
+          BundleUpload.class.getName()+".cpuBudgetPercent", 0);
+
+  /**
+   * Maximum duration of a run, from the start of the generation to the end of the upload. A run still going past it
+   * is cancelled, and the timeouts of its calls to the service are capped by the time left. {@code 0} disables the
+   * deadline.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int RUN_TIMEOUT_MINUTES = Integer.getInteger(
+          BundleUpload.class.getName()+".runTimeoutMinutes", 0);
+
+  private static final int DEFERRAL_HISTORY_SIZE = 20;
+
   private static final Logger LOG = Logger.getLogger(BundleUpload.class.getName());
   private TaskListener task;
+  private BundleGenerator generator;
+  private CpuBudget cpuBudget;
+  private BundleCodec codec;
+
+  private final Object runLock = new Object();
+  private volatile Thread runner;
+  private volatile long runStart;
+  private volatile long runDeadline = Timeouts.NO_DEADLINE;
+  private final Set<AdvisorClient> clients = ConcurrentHashMap.newKeySet();
+  private volatile String cancelReason;
+  private volatile UploadProgress progress;
+  private Future<?> triggeredRun;
+
+  private final RetryPolicy retryPolicy = new RetryPolicy();
+  /**
+   * {@link #RUN_TIMEOUT_MINUTES}, shortened by tests.
+   */
+  long runTimeoutMillis = TimeUnit.MINUTES.toMillis(RUN_TIMEOUT_MINUTES);
+  private Outbox outbox;
+  private int attempts;
+  private ScheduledFuture<?> retryRun;
+
+  private final LoadMonitor loadMonitor = new LoadMonitor();
+  private final LinkedList<Deferral> deferrals = new LinkedList<>();
+  private long deferredSince;
+  private ScheduledFuture<?> deferredRun;
 
   @SuppressWarnings("unused")
   public BundleUpload() {
@@ -55,34 +184,269 @@ public class BundleUpload extends AsyncPeriodicWork {
       return;
     }
 
-    if (!config.isPluginEnabled()) {
-      log(Level.FINEST, "CloudBees Jenkins Advisor plugin disabled. Skipping bundle upload.");
+    String skipReason = getSkipReason(config);
+    if (skipReason != null) {
+      log(Level.FINEST, skipReason + ". Skipping bundle upload.");
       return;
     }
-    if (!config.isValid()) {
-      log(Level.FINEST, "User not registered. Skipping bundle upload.");
+    RetryState retry = RetryState.load();
+    if (retry != null) {
+      log(Level.INFO, String.format("The last upload will be retried at %s. Skipping bundle upload.",
+          retry.getNextAttempt()));
       return;
     }
+    if (deferToUploadWindow(config)) {
+      return;
+    }
+    if (LOAD_AWARE && deferUnderLoad()) {
+      return;
+    }
+
+    // the work runs on a dedicated low priority thread, see BundleWorkers
+    BundleWorkers.run(() -> {
+      upload(config, null);
+      return null;
+    });
+  }
+
+  /**
+   * @return why the plugin may not contact the service, or {@code null} if it may.
+   */
+  @CheckForNull
+  static String getSkipReason(AdvisorGlobalConfiguration config) {
+    if (!config.isPluginEnabled()) {
+      return "CloudBees Jenkins Advisor plugin disabled";
+    }
+    if (!config.isValid()) {
+      return "User not registered";
+    }
     if (!config.isAcceptToS()) {
-      log(Level.FINEST, "Terms of conditions not accepted. Skipping bundle upload.");
+      return "Terms of conditions not accepted";
+    }
+    return null;
+  }
+
+  /**
+   * Starts a run now, regardless of the schedule, the upload windows and the load, and returns without waiting for
+   * it. Its progress is available from {@link #getProgress()}.
+   *
+   * @return why the run could not be started, or {@code null} if it was started.
+   */
+  @CheckForNull
+  public String trigger() {
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    if (config == null) {
+      return "CloudBees Jenkins Advisor is not configured";
+    }
+    String skipReason = getSkipReason(config);
+    if (skipReason != null) {
+      return skipReason;
+    }
+    synchronized (runLock) {
+      if (runner != null || (triggeredRun != null && !triggeredRun.isDone())) {
+        return "A bundle upload is already in progress";
+      }
+      // an administrator asking for an upload does not wait for the next probe
+      CircuitBreaker.get().probeNow();
+      triggeredRun = BundleWorkers.submit(() -> {
+        upload(config, null);
+        return null;
+      });
+    }
+    log(Level.INFO, "Bundle upload triggered on demand");
+    return null;
+  }
+
+  /**
+   * @return the progress of the run in progress or of the last run, or {@code null} if there was none since startup.
+   */
+  @CheckForNull
+  public UploadProgress getProgress() {
+    return progress;
+  }
+
+  /**
+   * Schedules the retry saved before the restart, if any.
+   */
+  @Initializer(after = InitMilestone.JOB_LOADED)
+  @SuppressWarnings("unused")
+  public static void scheduleSavedRetry() {
+    RetryState retry = RetryState.load();
+    if (retry != null) {
+      Jenkins.getInstance().getExtensionList(BundleUpload.class).get(0).scheduleRetry(retry);
+    }
+  }
+
+  private void scheduleRetry(RetryState retry) {
+    synchronized (runLock) {
+      if (retryRun != null) {
+        retryRun.cancel(false);
+      }
+      // the Timer only queues the retry, the bundle thread runs it
+      retryRun = Timer.get().schedule(() -> BundleWorkers.submit(() -> {
+        retry();
+        return null;
+      }), retry.getDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void clearRetry() {
+    synchronized (runLock) {
+      if (retryRun != null) {
+        retryRun.cancel(false);
+        retryRun = null;
+      }
+    }
+    RetryState.clear();
+  }
+
+  private void retry() {
+    // a run completed since the retry was scheduled may have cleared it
+    RetryState retry = RetryState.load();
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    if (retry == null || config == null) {
+      return;
+    }
+    String skipReason = getSkipReason(config);
+    if (skipReason != null) {
+      log(Level.INFO, skipReason + ". Dropping the retry of the last upload.");
+      clearRetry();
+      return;
+    }
+    File bundle = retry.getBundle();
+    if (bundle != null && !bundle.isFile()) {
+      log(Level.WARNING, String.format("Bundle %s to upload again no longer exists. Dropping the retry.", bundle));
+      clearRetry();
       return;
     }
+    log(Level.INFO, String.format("Retrying the bundle upload, attempt %d of %d. Last error: %s",
+        retry.getAttempts() + 1, retryPolicy.getMaxAttempts(), retry.getLastError()));
+    upload(config, retry);
+  }
 
-    File bundle = generateBundle();
+  private void upload(AdvisorGlobalConfiguration config, @CheckForNull RetryState retry) {
+    attempts = retry != null ? retry.getAttempts() : 0;
+    progress = new UploadProgress();
+    // the generation and the upload must agree on the codec, even if the configuration changes in between
+    codec = BundleCodec.fromConfig();
+    if (!codec.isIdentity() && !usesGenerator()) {
+      // support-core compresses the zip entries, which would only be compressed again
+      log(Level.INFO, String.format("The %s bundle codec only applies to delta bundles or parallel generation. "
+          + "Bundles are uploaded without encoding.", codec.getName()));
+      codec = BundleCodec.identity();
+    }
+    synchronized (runLock) {
+      cancelReason = null;
+      runStart = System.currentTimeMillis();
+      runDeadline = runTimeoutMillis > 0 ? runStart + runTimeoutMillis : Timeouts.NO_DEADLINE;
+      runner = Thread.currentThread();
+    }
+    ScheduledFuture<?> deadline = runTimeoutMillis > 0
+        ? Timer.get().schedule(() -> cancel(deadlineExceeded()), runTimeoutMillis, TimeUnit.MILLISECONDS)
+        : null;
+    try {
+      generateAndUpload(config, retry);
+    } finally {
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+      progress.finish(config.getLastBundleResult());
+      synchronized (runLock) {
+        runner = null;
+        runDeadline = Timeouts.NO_DEADLINE;
+        clients.clear();
+        // the thread is reused by the next run
+        Thread.interrupted();
+      }
+    }
+  }
+
+  private void generateAndUpload(AdvisorGlobalConfiguration config, @CheckForNull RetryState retry) {
+    if (!checkCircuit(config, retry)) {
+      return;
+    }
+    cpuBudget = new CpuBudget(CPU_BUDGET_PERCENT);
+    // before the bundle of this run, so that a bundle failing now is not sent twice in a row
+    drainOutbox(config);
     String pluginVersion = PluginHelper.getPluginVersion();
+    if (retry != null && retry.getBundle() != null) {
+      // the generator of the failed run is kept until restart so that its digests are saved on success
+      executeInternal(config.getEmail(), new ClientUploadRequest(Jenkins.getInstance().getLegacyInstanceId(),
+          retry.getBundle(), config.getCc(), pluginVersion));
+      return;
+    }
+
+    generator = null;
+    File pending = findResumableBundle();
+    if (pending != null) {
+      log(Level.INFO, "Resuming the upload of bundle " + pending.getName());
+      executeInternal(config.getEmail(), new ClientUploadRequest(Jenkins.getInstance().getLegacyInstanceId(), pending,
+          config.getCc(), pluginVersion));
+      return;
+    }
+
+    if (PIPELINED_UPLOAD) {
+      executeInternal(config.getEmail(), new ClientUploadRequest(Jenkins.getInstance().getLegacyInstanceId(),
+          SupportPlugin.getBundleFileName(), this::writeBundle, config.getCc(), pluginVersion));
+      return;
+    }
+
+    File bundle = generateBundle();
     if (bundle != null) {
-      executeInternal(config.getEmail(), bundle,pluginVersion);
-    } else {
+      executeInternal(config.getEmail(), new ClientUploadRequest(Jenkins.getInstance().getLegacyInstanceId(), bundle,
+          config.getCc(), pluginVersion));
+    } else if (cancelReason == null) {
       log(Level.SEVERE, UNABLE_TO_GENERATE_SUPPORT_BUNDLE);
       config.setLastBundleResult(UNABLE_TO_GENERATE_SUPPORT_BUNDLE);
     }
   }
 
+  /**
+   * Checks that the service is worth a bundle before generating one. While the circuit breaker is open the run is
+   * skipped and postponed to the next probe; once the probe is due, a health check decides whether the run goes on.
+   *
+   * @return {@code true} if the run can go on.
+   */
+  private boolean checkCircuit(AdvisorGlobalConfiguration config, @CheckForNull RetryState retry) {
+    CircuitBreaker breaker = CircuitBreaker.get();
+    if (breaker.isClosed()) {
+      return true;
+    }
+    if (breaker.isCallPermitted()) {
+      AdvisorClient advisorClient = newClient(config.getEmail());
+      try {
+        advisorClient.doCheckHealth();
+        log(Level.INFO, "The Advisor service is available again");
+        return true;
+      } catch (RuntimeException e) {
+        log(Level.WARNING, "The Advisor service is still unavailable: " + e.getMessage());
+      } finally {
+        clients.remove(advisorClient);
+      }
+    }
+    String reason = String.format("The Advisor service failed the last %d calls. Next check at %s",
+        breaker.getConsecutiveFailures(), breaker.getNextProbe());
+    long delay = breaker.getMillisToNextProbe();
+    if (retry != null) {
+      // the retry keeps its attempts and waits for the probe
+      RetryState postponed = new RetryState(retry.getBundle(), retry.getAttempts(),
+          System.currentTimeMillis() + delay, retry.getLastError());
+      postponed.save();
+      scheduleRetry(postponed);
+      log(Level.WARNING, reason + ". Postponing the retry of the last upload.");
+    } else {
+      defer(reason, delay);
+    }
+    config.setLastBundleResult(String.format("SKIPPED: %s. No bundle was generated.", reason));
+    return false;
+  }
+
   private static final String COULD_NOT_SAVE_SUPPORT_BUNDLE = "ERROR: Could not save support bundle";
   private static final String BUNDLE_DIR_DOES_NOT_EXIST = "Bundle root directory does not exist and could not be created";
 
   private File generateBundle() {
     AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    File file = null;
     try(ACLContext ignored = ACL.as(ACL.SYSTEM)) {
       File bundleDir = SupportPlugin.getRootDirectory();
       if (!bundleDir.exists() && !bundleDir.mkdirs()) {
@@ -91,41 +455,552 @@ public class BundleUpload extends AsyncPeriodicWork {
         return null;
       }
 
-      File file = new File(bundleDir, SupportPlugin.getBundleFileName());
+      file = new File(bundleDir, SupportPlugin.getBundleFileName());
+      GenerationHistory.Run profile;
       try(FileOutputStream fos = new FileOutputStream(file)) {
-        SupportPlugin.writeBundle(fos, config.getIncludedComponents());
-        return file;
+        profile = writeBundle(config, fos);
       }
+      recordProfile(profile, file.length());
+      BundleRetention.get().register(file);
+      return file;
     } catch (Exception e) {
-      logError(COULD_NOT_SAVE_SUPPORT_BUNDLE, e);
-      config.setLastBundleResult(String.format("%s%n%s", COULD_NOT_SAVE_SUPPORT_BUNDLE, e));
+      if (!handleCancellation(config, file)) {
+        logError(COULD_NOT_SAVE_SUPPORT_BUNDLE, e);
+        config.setLastBundleResult(String.format("%s%n%s", COULD_NOT_SAVE_SUPPORT_BUNDLE, e));
+      }
     }
     return null;
   }
 
-  private void executeInternal(String email, File file, String pluginVersion) {
+  /**
+   * Finds the most recent bundle whose resumable upload was interrupted, by a failure or a restart.
+   * Older interrupted uploads are abandoned since a fresher bundle is more useful than a stale one.
+   *
+   * @return the bundle to resume, or {@code null} to generate a new one.
+   */
+  private File findResumableBundle() {
+    if (AdvisorClientConfig.resumableUploadChunkSize() <= 0) {
+      return null;
+    }
+    File bundleDir = SupportPlugin.getRootDirectory();
+    if (!bundleDir.isDirectory()) {
+      return null;
+    }
+    long cutoff = System.currentTimeMillis() - 2 * getRecurrencePeriod();
+    File resumable = null;
+    for (File bundle : ResumableUpload.findPending(bundleDir)) {
+      if (bundle.lastModified() < cutoff || (resumable != null && bundle.lastModified() <= resumable.lastModified())) {
+        ResumableUpload.discard(bundle);
+      } else {
+        if (resumable != null) {
+          ResumableUpload.discard(resumable);
+        }
+        resumable = bundle;
+      }
+    }
+    return resumable;
+  }
+
+  /**
+   * Writes the bundle to the given stream, used when the bundle is piped into the upload request.
+   */
+  private void writeBundle(OutputStream out) throws IOException {
     AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    GenerationHistory.Run profile;
+    try(ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+      profile = writeBundle(config, out);
+    }
+    // the compressed size of a piped bundle is only known to the upload, which records it as bytes sent
+    recordProfile(profile, -1);
+  }
+
+  /**
+   * Writes the bundle with {@link SupportPlugin#writeBundle}. A {@link BundleGenerator} is only used when a delta
+   * bundle is requested or the components are generated in parallel, since either way it stages each component.
+   *
+   * @return the cost of the generation and of each component.
+   */
+  private GenerationHistory.Run writeBundle(AdvisorGlobalConfiguration config, OutputStream out) throws IOException {
+    if (usesGenerator()) {
+      newGenerator(config).writeTo(out);
+      return generator.getProfile();
+    }
+    List<Component> components = config.getIncludedComponents();
+    ComponentProfiler profiler = new ComponentProfiler(components)
+        .withCpuBudget(cpuBudget)
+        .withProgress(progress)
+        .withCancellation(() -> cancelReason != null || System.currentTimeMillis() >= runDeadline);
+    long startTime = System.currentTimeMillis();
+    long start = System.nanoTime();
+    progress.startGeneration(components.size());
     try {
-      AdvisorClient advisorClient = new AdvisorClient(new AccountCredentials(email));
+      SupportPlugin.writeBundle(progress.countWritten(out), profiler.wrap());
+    } finally {
+      progress.endGeneration();
+    }
+    // support-core records the contents that failed in the bundle and carries on
+    profiler.checkCancelled();
+    return new GenerationHistory.Run(startTime, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+        profiler.getStatistics());
+  }
+
+  /**
+   * @return {@code true} if the bundle is written by a {@link BundleGenerator} rather than by support-core.
+   */
+  private static boolean usesGenerator() {
+    return DELTA_BUNDLES || GENERATION_THREADS > 1;
+  }
+
+  private void recordProfile(GenerationHistory.Run profile, long bundleSize) {
+    AdvisorMetrics.get().recordGeneration(profile.getDurationMillis(), bundleSize);
+    log(Level.INFO, String.format("Generated a bundle in %s on %s (CPU %d ms, paused %d ms)",
+        profile.getDuration(), Thread.currentThread().getName(),
+        cpuBudget.getCpuMillis(), cpuBudget.getPausedMillis()));
+    GenerationHistory.get().record(profile);
+  }
 
-      ClientResponse response = advisorClient.uploadFile(new ClientUploadRequest(Jenkins.getInstance().getLegacyInstanceId(), file, config.getCc(), pluginVersion));
+  private BundleGenerator newGenerator(AdvisorGlobalConfiguration config) {
+    generator = new BundleGenerator(config.getIncludedComponents())
+        .withPreviousDigests(DELTA_BUNDLES ? config.getComponentDigests() : null)
+        .withParallelism(GENERATION_THREADS)
+        .withCpuBudget(cpuBudget)
+        .withProgress(progress);
+    // resumable uploads send the bundle file as is, so it must stay compressed
+    if (!codec.isIdentity() && AdvisorClientConfig.resumableUploadChunkSize() <= 0) {
+      generator.withCompressionLevel(Deflater.NO_COMPRESSION);
+    }
+    return generator;
+  }
+
+  private void executeInternal(String email, ClientUploadRequest request) {
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    AdvisorClient advisorClient = newClient(email).withUploadListener(progress);
+    try {
+      progress.startUpload(expectedUploadBytes(request));
+      ClientResponse response = advisorClient.uploadFile(request);
       if (response.getCode() == 200) {
+        clearRetry();
         config.setLastBundleResult("Successfully uploaded a bundle at " +
           new SimpleDateFormat("yyyy MM dd HH:mm:ss").format(Calendar.getInstance().getTime()));
+        if (DELTA_BUNDLES && generator != null) {
+          log(Level.INFO, String.format("Uploaded a delta bundle leaving out %d unchanged components",
+              generator.getUnchangedComponents().size()));
+          config.setComponentDigests(generator.getDigests());
+          config.save();
+        }
+        BundleRetention.Reclaimed reclaimed = BundleRetention.get().clean(getBundlesToUpload());
+        if (reclaimed.getBundles() > 0) {
+          log(Level.INFO, "Deleted " + reclaimed);
+          config.setLastBundleResult(config.getLastBundleResult() + ". Deleted " + reclaimed + ".");
+        }
       } else {
-        config.setLastBundleResult("Bundle upload failed. Response code was: " + response.getCode() + ". " +
-            "Response message: " + response.getMessage());
+        handleFailure(config, request, response.getCode(), "Bundle upload failed. Response code was: "
+            + response.getCode() + ". " + "Response message: " + response.getMessage());
       }
     } catch (Exception e) {
+      if (handleCancellation(config, request.getFile())) {
+        return;
+      }
       log(Level.SEVERE, "Issue while uploading file to bundle upload service: " + e.getMessage());
       log(Level.FINEST, "Exception while uploading file to bundle upload service. Cause: " + ExceptionUtils.getStackTrace(e));
-      config.setLastBundleResult("ERROR: Issue while uploading file to bundle upload service: " + e.getMessage());
+      handleFailure(config, request, HttpStatusException.statusOf(e),
+          "ERROR: Issue while uploading file to bundle upload service: " + e.getMessage());
+    } finally {
+      clients.remove(advisorClient);
     }
   }
 
+  /**
+   * @return a client that is aborted if the run is cancelled and makes no call past its deadline, to be removed from
+   * {@link #clients} once done. Its uploads, and the generation of a piped bundle, run at the priority of the
+   * {@link BundleWorkers}.
+   */
+  private AdvisorClient newClient(String email) {
+    AdvisorClient advisorClient = new AdvisorClient(new AccountCredentials(email))
+        .withDeadline(runDeadline)
+        .withCodec(codec)
+        .withThreadPriority(BundleWorkers.THREAD_PRIORITY);
+    synchronized (runLock) {
+      clients.add(advisorClient);
+      if (cancelReason != null) {
+        advisorClient.abort();
+      }
+    }
+    return advisorClient;
+  }
+
+  /**
+   * @return the outbox, resolved on first use since the extension is created before Jenkins may be available.
+   */
+  private synchronized Outbox outbox() {
+    if (outbox == null) {
+      outbox = Outbox.get();
+    }
+    return outbox;
+  }
+
+  /**
+   * Uploads the bundles queued in the outbox, {@link Outbox#DRAIN_CONCURRENCY} at a time, on each run the circuit
+   * breaker lets through, whatever becomes of the bundle of the run. Queued bundles are not started anymore after a
+   * transient failure, since the service is unreachable again. Each bundle is uploaded under its original name.
+   */
+  private void drainOutbox(AdvisorGlobalConfiguration config) {
+    List<File> queued = outbox().list();
+    if (queued.isEmpty()) {
+      return;
+    }
+    log(Level.INFO, String.format("Uploading %d bundles queued in the outbox", queued.size()));
+    AtomicBoolean unreachable = new AtomicBoolean();
+    List<Future<?>> uploads = new ArrayList<>();
+    for (File bundle : queued) {
+      uploads.add(BundleWorkers.outboxUploaders().submit(() -> drain(config, bundle, unreachable)));
+    }
+    try {
+      for (Future<?> upload : uploads) {
+        upload.get();
+      }
+    } catch (InterruptedException e) {
+      for (Future<?> upload : uploads) {
+        upload.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logError("Unable to upload the bundles of the outbox", e.getCause());
+    }
+  }
+
+  private void drain(AdvisorGlobalConfiguration config, File bundle, AtomicBoolean unreachable) {
+    if (unreachable.get() || cancelReason != null) {
+      return;
+    }
+    AdvisorClient advisorClient = newClient(config.getEmail());
+    try {
+      ClientResponse response = advisorClient.uploadFile(new ClientUploadRequest(
+          Jenkins.getInstance().getLegacyInstanceId(), bundle, Outbox.originalName(bundle), config.getCc(),
+          PluginHelper.getPluginVersion()));
+      if (response.getCode() == 200) {
+        log(Level.INFO, "Uploaded bundle " + bundle.getName() + " from the outbox");
+        outbox().remove(bundle);
+      } else if (RetryPolicy.isRetryable(response.getCode())) {
+        unreachable.set(true);
+      } else {
+        log(Level.WARNING, String.format("Bundle %s of the outbox was rejected with response code %d. Dropping it.",
+            bundle.getName(), response.getCode()));
+        outbox().remove(bundle);
+      }
+    } catch (RuntimeException e) {
+      unreachable.set(true);
+      log(Level.WARNING, "Unable to upload bundle " + bundle.getName() + " from the outbox: " + e.getMessage());
+    } finally {
+      clients.remove(advisorClient);
+    }
+  }
+
+  /**
+   * Queues a bundle that could not be uploaded in the outbox.
+   *
+   * @return a note on the outcome, to append to the last bundle result.
+   */
+  private String enqueue(@CheckForNull File bundle) {
+    if (bundle == null) {
+      return "";
+    }
+    try {
+      File queued = outbox().enqueue(bundle);
+      if (queued != null) {
+        log(Level.INFO, String.format("Queued bundle %s in the outbox", queued.getName()));
+        return " The bundle is queued in the outbox and will be uploaded after the next successful upload.";
+      }
+    } catch (IOException e) {
+      logError("Unable to queue bundle " + bundle + " in the outbox", e);
+    }
+    return "";
+  }
+
+  /**
+   * Schedules another attempt of a failed upload if the failure is transient and attempts are left. A bundle saved to
+   * disk is uploaded again as is; a piped bundle is generated again.
+   *
+   * @param status the HTTP status of the failed upload, or {@code 0} if no response was received.
+   * @param error  the outcome of the failed upload.
+   */
+  private void handleFailure(AdvisorGlobalConfiguration config, ClientUploadRequest request, int status, String error) {
+    int attemptsMade = attempts + 1;
+    if (!RetryPolicy.isRetryable(status)) {
+      clearRetry();
+      config.setLastBundleResult(error);
+      return;
+    }
+    if (!retryPolicy.canRetry(attemptsMade)) {
+      clearRetry();
+      config.setLastBundleResult(String.format("%s. Giving up after %d attempts.%s", error, attemptsMade,
+          enqueue(request.getFile())));
+      return;
+    }
+    long delay = retryPolicy.delayMillis(attemptsMade);
+    RetryState retry = new RetryState(request.getFile(), attemptsMade, System.currentTimeMillis() + delay, error);
+    retry.save();
+    scheduleRetry(retry);
+    log(Level.WARNING, String.format("Bundle upload attempt %d of %d failed. Retrying in %s.", attemptsMade,
+        retryPolicy.getMaxAttempts(), Util.getTimeSpanString(delay)));
+    config.setLastBundleResult(String.format("%s. Retrying at %s (attempt %d of %d).", error, retry.getNextAttempt(),
+        attemptsMade + 1, retryPolicy.getMaxAttempts()));
+  }
+
+  /**
+   * @return the bytes the upload will send, or {@code -1} if the request body is produced or encoded on the fly.
+   */
+  private long expectedUploadBytes(ClientUploadRequest request) {
+    File file = request.getFile();
+    if (file == null) {
+      return -1;
+    }
+    if (AdvisorClientConfig.resumableUploadChunkSize() > 0 || codec.isIdentity()) {
+      return file.length();
+    }
+    return -1;
+  }
+
+  /**
+   * Cancels the run in progress, if any. The generation stops before its next component and the upload in progress
+   * is aborted.
+   *
+   * @param reason why the run is cancelled, recorded as its outcome.
+   * @return {@code true} if a run was cancelled.
+   */
+  public boolean cancel(String reason) {
+    synchronized (runLock) {
+      Thread thread = runner;
+      if (thread == null || cancelReason != null) {
+        return false;
+      }
+      cancelReason = reason;
+      thread.interrupt();
+      for (AdvisorClient advisorClient : clients) {
+        advisorClient.abort();
+      }
+    }
+    log(Level.WARNING, "Cancelling the bundle upload: " + reason);
+    return true;
+  }
+
+  /**
+   * @return the bundles on disk that are still to be uploaded, which must not be deleted.
+   */
+  static Set<File> getBundlesToUpload() {
+    Set<File> bundles = new HashSet<>();
+    RetryState retry = RetryState.load();
+    if (retry != null && retry.getBundle() != null) {
+      bundles.add(retry.getBundle().getAbsoluteFile());
+    }
+    return bundles;
+  }
+
+  /**
+   * @return the number of bundles waiting in the outbox.
+   */
+  public int getOutboxBundleCount() {
+    return outbox().list().size();
+  }
+
+  public String getOutboxSize() {
+    return GenerationHistory.formatBytes(outbox().getSizeBytes());
+  }
+
+  /**
+   * @return {@code true} if a bundle is being generated or uploaded.
+   */
+  public boolean isRunning() {
+    return runner != null;
+  }
+
+  /**
+   * @return when the run in progress started, or {@code null} if there is none.
+   */
+  @CheckForNull
+  public Date getRunningSince() {
+    return isRunning() ? new Date(runStart) : null;
+  }
+
+  /**
+   * Records the outcome of a cancelled run and deletes the bundle it left behind.
+   *
+   * @param bundle the bundle of the run, partially written or partially uploaded.
+   * @return {@code true} if the run was cancelled, {@code false} if it failed on its own.
+   */
+  private boolean handleCancellation(AdvisorGlobalConfiguration config, @CheckForNull File bundle) {
+    String reason = cancelReason;
+    if (reason == null && System.currentTimeMillis() >= runDeadline) {
+      // the calls time out at the deadline too, possibly just before the run is cancelled
+      reason = deadlineExceeded();
+    }
+    if (reason == null) {
+      return false;
+    }
+    if (bundle != null) {
+      ResumableUpload.discard(bundle);
+      if (bundle.exists() && !bundle.delete()) {
+        log(Level.WARNING, "Unable to delete the bundle of the cancelled run " + bundle);
+      }
+    }
+    clearRetry();
+    AdvisorMetrics.get().recordCancellation();
+    log(Level.WARNING, String.format("Bundle upload cancelled after %s: %s",
+        Util.getTimeSpanString(System.currentTimeMillis() - runStart), reason));
+    config.setLastBundleResult("CANCELLED: Bundle upload cancelled. " + reason);
+    return true;
+  }
+
+  private String deadlineExceeded() {
+    return String.format("The run exceeded its deadline of %s", Util.getTimeSpanString(runTimeoutMillis));
+  }
+
+  /**
+   * Defers the upload to the next upload window if it is outside of all windows, or if the previous generation and
+   * upload took longer than what is left of the current window.
+   *
+   * @return {@code true} if the upload was deferred.
+   */
+  private boolean deferToUploadWindow(AdvisorGlobalConfiguration config) {
+    UploadWindows windows = UploadWindows.parse(config.getUploadWindows());
+    if (windows.isEmpty()) {
+      return false;
+    }
+    Calendar now = Calendar.getInstance();
+    Calendar from = now;
+    String reason = "Outside of the upload windows";
+    if (windows.contains(now)) {
+      Calendar end = windows.end(now);
+      long expected = expectedDurationMillis();
+      if (end == null || now.getTimeInMillis() + expected <= end.getTimeInMillis()) {
+        return false;
+      }
+      from = end;
+      reason = String.format("The upload is expected to take %s and would not finish before the end of the upload window at %s",
+          Util.getTimeSpanString(expected), end.getTime());
+    }
+    Calendar next = windows.nextStart(from);
+    if (next == null) {
+      log(Level.WARNING, "No upload window in the coming week. Uploading now.");
+      return false;
+    }
+    // spread the instances over the window rather than starting them all when it opens
+    Calendar start = (Calendar) next.clone();
+    start.add(Calendar.MILLISECOND, (int) getJitterMillis());
+    if (!windows.contains(start)) {
+      start = next;
+    }
+    defer(String.format("%s. Next window starts at %s", reason, next.getTime()),
+        start.getTimeInMillis() - now.getTimeInMillis());
+    return true;
+  }
+
+  /**
+   * @return the time the last generation and upload took.
+   */
+  private static long expectedDurationMillis() {
+    GenerationHistory.Run lastRun = GenerationHistory.get().getLastRun();
+    return (lastRun != null ? lastRun.getDurationMillis() : 0) + AdvisorMetrics.get().getLastUploadDurationMillis();
+  }
+
+  /**
+   * Defers the upload if the controller is busy, unless it was already deferred for {@link #MAX_DEFERRAL_HOURS}.
+   *
+   * @return {@code true} if the upload was deferred.
+   */
+  private boolean deferUnderLoad() {
+    String reason = loadMonitor.getDeferralReason();
+    synchronized (deferrals) {
+      long now = System.currentTimeMillis();
+      if (reason != null) {
+        if (deferredSince == 0) {
+          deferredSince = now;
+        }
+        if (now - deferredSince < TimeUnit.HOURS.toMillis(MAX_DEFERRAL_HOURS)) {
+          defer(reason, TimeUnit.MINUTES.toMillis(DEFERRAL_INTERVAL_MINUTES));
+          return true;
+        }
+        log(Level.WARNING, String.format("Uploading a bundle despite the load after deferring it for %s: %s",
+            Util.getTimeSpanString(now - deferredSince), reason));
+      }
+      deferredSince = 0;
+      if (deferredRun != null) {
+        deferredRun.cancel(false);
+        deferredRun = null;
+      }
+      return false;
+    }
+  }
+
+  private void defer(String reason, long delayMillis) {
+    synchronized (deferrals) {
+      deferrals.addFirst(new Deferral(System.currentTimeMillis(), reason));
+      while (deferrals.size() > DEFERRAL_HISTORY_SIZE) {
+        deferrals.removeLast();
+      }
+      if (deferredRun != null) {
+        deferredRun.cancel(false);
+      }
+      deferredRun = Timer.get().schedule(this::run, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    log(Level.INFO, String.format("Bundle upload deferred by %s: %s", Util.getTimeSpanString(delayMillis), reason));
+  }
+
+  /**
+   * @return the most recent deferrals of the upload, most recent first.
+   */
+  public List<Deferral> getDeferrals() {
+    synchronized (deferrals) {
+      return new ArrayList<>(deferrals);
+    }
+  }
+
+  /**
+   * @return the deferral of the pending upload, with its reason, or {@code null} if it is not deferred.
+   */
+  @CheckForNull
+  public Deferral getPendingDeferral() {
+    synchronized (deferrals) {
+      return deferredRun != null && !deferredRun.isDone() && !deferrals.isEmpty() ? deferrals.getFirst() : null;
+    }
+  }
+
+  /**
+   * @return when the pending upload was first deferred because of the load, or {@code null} if it is not deferred
+   * because of the load.
+   */
+  @CheckForNull
+  public Date getDeferredSince() {
+    synchronized (deferrals) {
+      return deferredSince == 0 ? null : new Date(deferredSince);
+    }
+  }
+
+  /**
+   * The recurrence is stretched by the offset, up to a tenth of the period, so that instances restarted together
+   * drift apart instead of staying aligned.
+   */
   @Override
   public long getRecurrencePeriod() {
-    return TimeUnit.HOURS.toMillis(RECURRENCE_PERIOD_HOURS);
+    long period = TimeUnit.HOURS.toMillis(RECURRENCE_PERIOD_HOURS);
+    return period + Math.min(getJitterMillis(), period / 10);
+  }
+
+  /**
+   * @return the offset of this instance within the {@link #SPREAD_WINDOW_MINUTES spread window}, the same on every
+   * restart.
+   */
+  public long getJitterMillis() {
+    Jenkins jenkins = Jenkins.getInstanceOrNull();
+    long spread = TimeUnit.MINUTES.toMillis(SPREAD_WINDOW_MINUTES);
+    if (jenkins == null || spread <= 0) {
+      return 0;
+    }
+    return Hash.forSeed(jenkins.getLegacyInstanceId()).next((int) Math.min(spread, Integer.MAX_VALUE));
+  }
+
+  public String getJitter() {
+    return Util.getTimeSpanString(getJitterMillis());
   }
 
   /**
@@ -152,11 +1027,34 @@ public class BundleUpload extends AsyncPeriodicWork {
 
   /**
    * By default we wait a few minutes to allow support-core plugin time to generate a bundle first.
+   * The offset of this instance is added, so that a fleet restarted together does not upload all at once.
    *
    * @return initial delay before running work (in milliseconds).
    */
   @Override
   public long getInitialDelay() {
-    return TimeUnit.MINUTES.toMillis(INITIAL_DELAY_MINUTES);
+    return TimeUnit.MINUTES.toMillis(INITIAL_DELAY_MINUTES) + getJitterMillis();
+  }
+
+  /**
+   * An upload postponed because the controller could not afford it at the time, it was outside of the upload windows
+   * or the service was unavailable.
+   */
+  public static final class Deferral {
+    private final long timestamp;
+    private final String reason;
+
+    Deferral(long timestamp, String reason) {
+      this.timestamp = timestamp;
+      this.reason = reason;
+    }
+
+    public Date getTimestamp() {
+      return new Date(timestamp);
+    }
+
+    public String getReason() {
+      return reason;
+    }
   }
 }
@@ -0,0 +1,96 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads dedicated to bundle work, kept apart from the threads serving requests and scheduling builds.
+ * A single thread runs the generate-and-upload sequence, a pool of {@link BundleUpload#GENERATION_THREADS}
+ * threads generates components in parallel when more than one is configured and a pool of
+ * {@link Outbox#DRAIN_CONCURRENCY} threads uploads the bundles of the outbox. All of them run at
+ * {@link #THREAD_PRIORITY} and exit when idle.
+ */
+final class BundleWorkers {
+
+  /**
+   * Priority of the bundle threads. The JVM only maps it to the OS scheduler on some platforms, e.g. on Linux it
+   * requires {@code -XX:ThreadPriorityPolicy=1}.
+   */
+  static final int THREAD_PRIORITY = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.NORM_PRIORITY,
+      Integer.getInteger(BundleWorkers.class.getName() + ".threadPriority", Thread.MIN_PRIORITY)));
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static final ExecutorService RUNNER = newPool("Advisor bundle upload", 1);
+  private static final ExecutorService GENERATORS = newPool("Advisor bundle generation",
+      BundleUpload.GENERATION_THREADS);
+  private static final ExecutorService OUTBOX_UPLOADERS = newPool("Advisor outbox upload",
+      Math.max(1, Outbox.DRAIN_CONCURRENCY));
+
+  private BundleWorkers() {
+    throw new UnsupportedOperationException("Cannot instantiate utility class");
+  }
+
+  /**
+   * Runs a task on the bundle upload thread and waits for it. Interrupting the caller interrupts the task.
+   */
+  static <T> T run(Callable<T> task) throws IOException, InterruptedException {
+    Future<T> future = RUNNER.submit(task);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof InterruptedIOException) {
+        throw (InterruptedIOException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Queues a task on the bundle upload thread without waiting for it.
+   */
+  static <T> Future<T> submit(Callable<T> task) {
+    return RUNNER.submit(task);
+  }
+
+  static ExecutorService generators() {
+    return GENERATORS;
+  }
+
+  static ExecutorService outboxUploaders() {
+    return OUTBOX_UPLOADERS;
+  }
+
+  private static ExecutorService newPool(String name, int threads) {
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread thread = new Thread(r, name + " #" + count.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(THREAD_PRIORITY);
+      return thread;
+    };
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), factory);
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+}
@@ -0,0 +1,239 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.support.api.Component;
+import com.cloudbees.jenkins.support.api.Container;
+import com.cloudbees.jenkins.support.api.Content;
+import hudson.security.Permission;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Measures the components of a bundle written by {@code SupportPlugin.writeBundle}, the same way as
+ * {@link BundleGenerator} does for the bundles it writes itself.
+ *
+ * <p>support-core first asks every component for its contents, then writes them. Each component is wrapped so that
+ * the time it takes to add its contents, and each of its contents, is charged to it: wall time, CPU time of the
+ * thread, allocated bytes and the bytes it wrote before compression.</p>
+ */
+final class ComponentProfiler {
+
+  private final List<Component> components;
+  private final List<Usage> usages = new ArrayList<>();
+  private CpuBudget cpuBudget = new CpuBudget(0);
+  private UploadProgress progress = new UploadProgress();
+  private BooleanSupplier cancelled = () -> false;
+
+  ComponentProfiler(List<Component> components) {
+    this.components = components;
+    for (int i = 0; i < components.size(); i++) {
+      usages.add(new Usage());
+    }
+  }
+
+  /**
+   * @param progress updated with the component whose contents are being written. support-core writes the contents in
+   *                 the order of the components, so the progress only moves forward.
+   * @return this profiler.
+   */
+  ComponentProfiler withProgress(UploadProgress progress) {
+    this.progress = progress;
+    return this;
+  }
+
+  /**
+   * support-core goes on with the next content when one fails, so once the run is cancelled every remaining content
+   * fails fast, and {@link #checkCancelled()} tells whether the bundle was written in full.
+   *
+   * @param cancelled whether the run was cancelled or is past its deadline. An interrupted thread is cancelled too.
+   * @return this profiler.
+   */
+  ComponentProfiler withCancellation(BooleanSupplier cancelled) {
+    this.cancelled = cancelled;
+    return this;
+  }
+
+  /**
+   * Paces the generation so that it stays within a share of one core. The CPU time of each content is charged once
+   * it is written, and the run pauses before the next content while it is over budget.
+   *
+   * @param cpuBudget the budget of the run.
+   * @return this profiler.
+   */
+  ComponentProfiler withCpuBudget(CpuBudget cpuBudget) {
+    this.cpuBudget = cpuBudget;
+    return this;
+  }
+
+  /**
+   * @return the components to give to support-core, measuring the originals.
+   */
+  List<Component> wrap() {
+    List<Component> wrapped = new ArrayList<>();
+    for (int i = 0; i < components.size(); i++) {
+      wrapped.add(new ProfiledComponent(i));
+    }
+    return wrapped;
+  }
+
+  /**
+   * @throws InterruptedIOException if the run was cancelled, the thread interrupted or the deadline reached.
+   */
+  void checkCancelled() throws InterruptedIOException {
+    if (Thread.currentThread().isInterrupted() || cancelled.getAsBoolean()) {
+      throw new InterruptedIOException("Bundle generation was cancelled");
+    }
+  }
+
+  /**
+   * @return the cost of each component, in the order of the components, once the bundle has been written.
+   */
+  List<GenerationHistory.ComponentStatistics> getStatistics() {
+    List<GenerationHistory.ComponentStatistics> statistics = new ArrayList<>();
+    for (int i = 0; i < components.size(); i++) {
+      Component component = components.get(i);
+      Usage usage = usages.get(i);
+      statistics.add(new GenerationHistory.ComponentStatistics(component.getId(), component.getDisplayName(),
+          TimeUnit.NANOSECONDS.toMillis(usage.wallNanos),
+          usage.cpuNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(usage.cpuNanos),
+          usage.allocatedBytes, usage.outputBytes));
+    }
+    return statistics;
+  }
+
+  /**
+   * The cost of a component so far. A measure the JVM cannot take is {@code -1}.
+   */
+  private static final class Usage {
+    private long wallNanos;
+    private long cpuNanos;
+    private long allocatedBytes;
+    private long outputBytes;
+  }
+
+  /**
+   * A measure in progress on the current thread, charged to a component once the work is done.
+   */
+  private static final class Measure {
+    private final long start = System.nanoTime();
+    private final long cpuStart = CpuBudget.currentThreadCpuTime();
+    private final long allocatedStart = BundleGenerator.currentThreadAllocatedBytes();
+
+    /**
+     * @return the CPU time taken since the measure started, or {@code -1} if the JVM cannot measure it.
+     */
+    long chargeTo(Usage usage) {
+      long cpuEnd = CpuBudget.currentThreadCpuTime();
+      long allocatedEnd = BundleGenerator.currentThreadAllocatedBytes();
+      long cpu = cpuStart < 0 || cpuEnd < 0 ? -1 : cpuEnd - cpuStart;
+      synchronized (usage) {
+        usage.wallNanos += System.nanoTime() - start;
+        usage.cpuNanos = usage.cpuNanos < 0 || cpu < 0 ? -1 : usage.cpuNanos + cpu;
+        usage.allocatedBytes = usage.allocatedBytes < 0 || allocatedStart < 0 || allocatedEnd < 0
+            ? -1 : usage.allocatedBytes + allocatedEnd - allocatedStart;
+      }
+      return cpu;
+    }
+  }
+
+  private final class ProfiledComponent extends Component {
+    private final int index;
+    private final Component component;
+
+    private ProfiledComponent(int index) {
+      this.index = index;
+      this.component = components.get(index);
+    }
+
+    @Override
+    public String getId() {
+      return component.getId();
+    }
+
+    @Override
+    public String getDisplayName() {
+      return component.getDisplayName();
+    }
+
+    @Override
+    public Set<Permission> getRequiredPermissions() {
+      return component.getRequiredPermissions();
+    }
+
+    @Override
+    public boolean isEnabled() {
+      return component.isEnabled();
+    }
+
+    @Override
+    public boolean isSelectedByDefault() {
+      return component.isSelectedByDefault();
+    }
+
+    @Override
+    public void addContents(Container container) {
+      Measure measure = new Measure();
+      try {
+        component.addContents(new Container() {
+          @Override
+          public void add(@CheckForNull Content content) {
+            container.add(content != null ? new ProfiledContent(index, content) : null);
+          }
+        });
+      } finally {
+        cpuBudget.charge(measure.chargeTo(usages.get(index)));
+      }
+    }
+  }
+
+  private final class ProfiledContent extends Content {
+    private final int index;
+    private final Content content;
+
+    private ProfiledContent(int index, Content content) {
+      super(content.getName());
+      this.index = index;
+      this.content = content;
+    }
+
+    @Override
+    public long getTime() throws IOException {
+      return content.getTime();
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+      checkCancelled();
+      pace();
+      progress.startComponent(index, components.get(index).getDisplayName());
+      Usage usage = usages.get(index);
+      CountingOutputStream counter = new CountingOutputStream(os);
+      Measure measure = new Measure();
+      try {
+        content.writeTo(counter);
+      } finally {
+        cpuBudget.charge(measure.chargeTo(usage));
+        synchronized (usage) {
+          usage.outputBytes += counter.getByteCount();
+        }
+      }
+    }
+  }
+
+  private void pace() throws IOException {
+    try {
+      cpuBudget.pace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while generating the bundle");
+    }
+  }
+}
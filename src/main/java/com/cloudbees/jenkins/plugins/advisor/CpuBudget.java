@@ -0,0 +1,77 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the CPU time of a bundle run to a share of one core. The threads doing the work report the CPU time they
+ * spent, and {@link #pace()} pauses them until the run is back within its budget.
+ */
+final class CpuBudget {
+
+  /**
+   * Longest single pause, so that a large overrun does not stall the run for too long at once.
+   */
+  private static final long MAX_PAUSE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final int percent;
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong cpuNanos = new AtomicLong();
+  private final AtomicLong pausedNanos = new AtomicLong();
+
+  /**
+   * @param percent the share of one core the run may use, from 1 to 100; {@code 0} or less means no limit.
+   */
+  CpuBudget(int percent) {
+    this.percent = percent;
+  }
+
+  boolean isLimited() {
+    return percent > 0 && percent < 100;
+  }
+
+  /**
+   * @return the CPU time of the current thread, in nanoseconds, or {@code -1} if the JVM cannot measure it.
+   */
+  static long currentThreadCpuTime() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled()) {
+      return threads.getCurrentThreadCpuTime();
+    }
+    return -1;
+  }
+
+  void charge(long nanos) {
+    if (nanos > 0) {
+      cpuNanos.addAndGet(nanos);
+    }
+  }
+
+  /**
+   * Pauses the calling thread if the run used more than its share of CPU since it started.
+   *
+   * @throws InterruptedException if the thread is interrupted while paused.
+   */
+  void pace() throws InterruptedException {
+    if (!isLimited()) {
+      return;
+    }
+    long allowedWallNanos = cpuNanos.get() * 100 / percent;
+    long overrunNanos = allowedWallNanos - (System.nanoTime() - startNanos);
+    if (overrunNanos > 0) {
+      long pause = Math.min(TimeUnit.NANOSECONDS.toMillis(overrunNanos), MAX_PAUSE_MILLIS);
+      pausedNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(pause));
+      Thread.sleep(pause);
+    }
+  }
+
+  long getCpuMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(cpuNanos.get());
+  }
+
+  long getPausedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(pausedNanos.get());
+  }
+}
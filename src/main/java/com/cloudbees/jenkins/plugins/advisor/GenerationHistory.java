@@ -0,0 +1,226 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the per-component profile of the last bundle generations, so that slow or large components can be spotted
+ * from the management page.
+ */
+@Extension
+public class GenerationHistory implements Saveable {
+
+  private static final Logger LOG = Logger.getLogger(GenerationHistory.class.getName());
+
+  /**
+   * Number of generations kept in the history.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int HISTORY_SIZE = Integer.getInteger(GenerationHistory.class.getName() + ".size", 10);
+
+  private final LinkedList<Run> runs = new LinkedList<>();
+
+  @SuppressWarnings("unused")
+  public GenerationHistory() {
+    load();
+  }
+
+  public static GenerationHistory get() {
+    return Jenkins.getInstance().getExtensionList(GenerationHistory.class).get(0);
+  }
+
+  /**
+   * @return the recorded generations, most recent first.
+   */
+  public synchronized List<Run> getRuns() {
+    return new ArrayList<>(runs);
+  }
+
+  /**
+   * @return the most recent generation, or {@code null} if none was recorded yet.
+   */
+  public synchronized Run getLastRun() {
+    return runs.isEmpty() ? null : runs.getFirst();
+  }
+
+  synchronized void record(Run run) {
+    runs.addFirst(run);
+    while (runs.size() > Math.max(1, HISTORY_SIZE)) {
+      runs.removeLast();
+    }
+    save();
+  }
+
+  @Override
+  public synchronized void save() {
+    try {
+      getConfigFile().write(this);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to save " + getConfigFile(), e);
+    }
+  }
+
+  private synchronized void load() {
+    XmlFile file = getConfigFile();
+    if (!file.exists()) {
+      return;
+    }
+    try {
+      file.unmarshal(this);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to load " + file, e);
+    }
+  }
+
+  private XmlFile getConfigFile() {
+    return new XmlFile(new File(Jenkins.getInstance().getRootDir(), getClass().getName() + ".xml"));
+  }
+
+  static String formatBytes(long bytes) {
+    if (bytes < 0) {
+      return "N/A";
+    }
+    if (bytes < 1024) {
+      return bytes + " B";
+    }
+    int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+    return String.format(Locale.ENGLISH, "%.1f %siB", (double) bytes / (1L << (unit * 10)), " KMGTPE".charAt(unit));
+  }
+
+  /**
+   * A single bundle generation.
+   */
+  public static final class Run {
+    private final long timestamp;
+    private final long durationMillis;
+    private final List<ComponentStatistics> components;
+
+    Run(long timestamp, long durationMillis, List<ComponentStatistics> components) {
+      this.timestamp = timestamp;
+      this.durationMillis = durationMillis;
+      this.components = new ArrayList<>(components);
+    }
+
+    public Date getTimestamp() {
+      return new Date(timestamp);
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    public String getDuration() {
+      return Util.getTimeSpanString(durationMillis);
+    }
+
+    public List<ComponentStatistics> getComponents() {
+      return Collections.unmodifiableList(components);
+    }
+
+    /**
+     * @return the component that took the longest to generate, or {@code null} if there were none.
+     */
+    public ComponentStatistics getSlowestComponent() {
+      ComponentStatistics slowest = null;
+      for (ComponentStatistics c : components) {
+        if (slowest == null || c.getWallTimeMillis() > slowest.getWallTimeMillis()) {
+          slowest = c;
+        }
+      }
+      return slowest;
+    }
+
+    public String getOutputSize() {
+      long total = 0;
+      for (ComponentStatistics c : components) {
+        total += c.getOutputBytes();
+      }
+      return formatBytes(total);
+    }
+  }
+
+  /**
+   * The cost of generating one component.
+   */
+  public static final class ComponentStatistics {
+    private final String id;
+    private final String displayName;
+    private final long wallTimeMillis;
+    private final long cpuTimeMillis;
+    private final long allocatedBytes;
+    private final long outputBytes;
+
+    ComponentStatistics(String id, String displayName, long wallTimeMillis, long cpuTimeMillis, long allocatedBytes,
+                        long outputBytes) {
+      this.id = id;
+      this.displayName = displayName;
+      this.wallTimeMillis = wallTimeMillis;
+      this.cpuTimeMillis = cpuTimeMillis;
+      this.allocatedBytes = allocatedBytes;
+      this.outputBytes = outputBytes;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getDisplayName() {
+      return displayName;
+    }
+
+    public long getWallTimeMillis() {
+      return wallTimeMillis;
+    }
+
+    /**
+     * @return the CPU time of the generating thread, or {@code -1} if the JVM cannot measure it.
+     */
+    public long getCpuTimeMillis() {
+      return cpuTimeMillis;
+    }
+
+    /**
+     * @return the bytes allocated by the generating thread, or {@code -1} if the JVM cannot measure it.
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    /**
+     * @return the uncompressed size of the component's output.
+     */
+    public long getOutputBytes() {
+      return outputBytes;
+    }
+
+    public String getWallTime() {
+      return Util.getTimeSpanString(wallTimeMillis);
+    }
+
+    public String getCpuTime() {
+      return cpuTimeMillis < 0 ? "N/A" : Util.getTimeSpanString(cpuTimeMillis);
+    }
+
+    public String getAllocatedSize() {
+      return formatBytes(allocatedBytes);
+    }
+
+    public String getOutputSize() {
+      return formatBytes(outputBytes);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.plugins.advisor.client.AdvisorClient;
+import com.cloudbees.jenkins.plugins.advisor.client.ClientExecutor;
+import com.cloudbees.jenkins.plugins.advisor.client.model.AccountCredentials;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Checks the connection to the Advisor service in the background and caches the outcome, so that rendering the
+ * management page never waits for the network.
+ */
+@Extension
+public class HealthProbe extends AsyncPeriodicWork {
+
+  /**
+   * Time between two checks of the connection.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int RECURRENCE_PERIOD_MINUTES = Integer.getInteger(
+      HealthProbe.class.getName() + ".recurrencePeriodMinutes", 15);
+
+  /**
+   * Time given to the service to answer a check of the connection, or a test email, before giving up.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final int TIMEOUT_SECONDS = Integer.getInteger(HealthProbe.class.getName() + ".timeoutSeconds", 30);
+
+  static final String CONNECTED = "You are connected to CloudBees Jenkins Advisor!";
+
+  private volatile Status status;
+
+  @SuppressWarnings("unused")
+  public HealthProbe() {
+    super("Advisor Health Probe");
+  }
+
+  public static HealthProbe get() {
+    return Jenkins.getInstance().getExtensionList(HealthProbe.class).get(0);
+  }
+
+  /**
+   * Checks the connection, only once the plugin is allowed to contact the service, the same as
+   * {@link BundleUpload}: enabled, registered and with the terms accepted.
+   */
+  @Override
+  protected void execute(TaskListener listener) {
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    String skipReason = getSkipReason(config);
+    if (skipReason != null) {
+      logger.log(Level.FINEST, skipReason + ". Skipping connection check.");
+      return;
+    }
+    probe(config.getEmail());
+  }
+
+  /**
+   * @return why the connection is not checked, or {@code null} if it is.
+   */
+  @CheckForNull
+  static String getSkipReason(@CheckForNull AdvisorGlobalConfiguration config) {
+    if (config == null || config.getEmail() == null) {
+      return "No email registered";
+    }
+    return BundleUpload.getSkipReason(config);
+  }
+
+  /**
+   * Checks the connection now, waiting at most {@link #TIMEOUT_SECONDS} for the service.
+   *
+   * @return the outcome of the check, which is also cached.
+   */
+  Status probe(String email) {
+    Status checked = check(email);
+    // an interrupted check tells nothing about the service, the last outcome stays cached
+    if (!Thread.currentThread().isInterrupted()) {
+      status = checked;
+    }
+    return checked;
+  }
+
+  /**
+   * Checks the connection now for any email, e.g. one not saved yet, waiting at most {@link #TIMEOUT_SECONDS} for the
+   * service. The outcome is not cached.
+   *
+   * @return the outcome of the check.
+   */
+  static Status check(String email) {
+    try {
+      await(new AdvisorClient(new AccountCredentials(email)).checkHealthAsync());
+      return new Status(System.currentTimeMillis(), true, CONNECTED);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new Status(System.currentTimeMillis(), false, "Interrupted while checking the connection");
+    } catch (Exception e) {
+      return new Status(System.currentTimeMillis(), false, String.valueOf(e.getMessage()));
+    }
+  }
+
+  /**
+   * Waits at most {@link #TIMEOUT_SECONDS} for a call to the service, which is aborted past that.
+   *
+   * @throws Exception the failure of the call, or a {@link java.util.concurrent.TimeoutException}.
+   */
+  static <T> T await(CompletableFuture<T> call) throws Exception {
+    try {
+      return ClientExecutor.withTimeout(call, TIMEOUT_SECONDS, TimeUnit.SECONDS).get();
+    } catch (InterruptedException e) {
+      call.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  /**
+   * Checks the connection again in the background. Does nothing if a check is already in progress.
+   */
+  public void refresh() {
+    // the check runs on its own thread, see AsyncPeriodicWork
+    run();
+  }
+
+  /**
+   * @return the outcome of the last check, or {@code null} if the connection was not checked since startup.
+   */
+  @CheckForNull
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return {@code true} if the last check is older than two periods, e.g. because checks fail to complete.
+   */
+  boolean isStale() {
+    Status checked = status;
+    return checked == null
+        || System.currentTimeMillis() - checked.timestamp > 2 * TimeUnit.MINUTES.toMillis(RECURRENCE_PERIOD_MINUTES);
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return TimeUnit.MINUTES.toMillis(RECURRENCE_PERIOD_MINUTES);
+  }
+
+  @Override
+  protected Level getNormalLoggingLevel() {
+    return Level.FINE;
+  }
+
+  /**
+   * The outcome of a check of the connection.
+   */
+  public static final class Status {
+    private final long timestamp;
+    private final boolean connected;
+    private final String message;
+
+    Status(long timestamp, boolean connected, String message) {
+      this.timestamp = timestamp;
+      this.connected = connected;
+      this.message = message;
+    }
+
+    public Date getTimestamp() {
+      return new Date(timestamp);
+    }
+
+    public boolean isConnected() {
+      return connected;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    /**
+     * @return the time elapsed since the check.
+     */
+    public String getAge() {
+      return Util.getTimeSpanString(System.currentTimeMillis() - timestamp);
+    }
+  }
+}
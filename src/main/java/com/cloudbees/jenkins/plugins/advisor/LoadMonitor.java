@@ -0,0 +1,111 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import hudson.init.InitMilestone;
+import hudson.model.Computer;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells whether the controller is too busy for a bundle to be generated and uploaded now.
+ */
+final class LoadMonitor {
+
+  /**
+   * Number of items in the build queue above which the upload is deferred.
+   */
+  static final int MAX_QUEUE_LENGTH = Integer.getInteger(LoadMonitor.class.getName() + ".maxQueueLength", 100);
+
+  /**
+   * Percentage of busy executors above which the upload is deferred.
+   */
+  static final int MAX_BUSY_EXECUTORS_PERCENT = Integer.getInteger(
+      LoadMonitor.class.getName() + ".maxBusyExecutorsPercent", 90);
+
+  /**
+   * Percentage of the time spent in garbage collection since the previous check above which the upload is deferred.
+   */
+  static final int MAX_GC_TIME_PERCENT = Integer.getInteger(LoadMonitor.class.getName() + ".maxGcTimePercent", 10);
+
+  private static final long MIN_GC_SAMPLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final int maxQueueLength;
+  private final int maxBusyExecutorsPercent;
+  private final int maxGcTimePercent;
+
+  private long lastGcTimeMillis = totalGcTimeMillis();
+  private long lastSampleNanos = System.nanoTime();
+
+  LoadMonitor() {
+    this(MAX_QUEUE_LENGTH, MAX_BUSY_EXECUTORS_PERCENT, MAX_GC_TIME_PERCENT);
+  }
+
+  LoadMonitor(int maxQueueLength, int maxBusyExecutorsPercent, int maxGcTimePercent) {
+    this.maxQueueLength = maxQueueLength;
+    this.maxBusyExecutorsPercent = maxBusyExecutorsPercent;
+    this.maxGcTimePercent = maxGcTimePercent;
+  }
+
+  /**
+   * @return why the upload should be deferred, or {@code null} if the controller can afford it now.
+   */
+  @CheckForNull
+  synchronized String getDeferralReason() {
+    // sampled on every check, so that the next check only looks at what happened since this one
+    long gcTimePercent = sampleGcTimePercent();
+
+    Jenkins jenkins = Jenkins.getInstance();
+    InitMilestone initLevel = jenkins.getInitLevel();
+    if (initLevel != InitMilestone.COMPLETED) {
+      return String.format("Jenkins has not finished starting up (%s)", initLevel);
+    }
+
+    int queueLength = jenkins.getQueue().getItems().length;
+    if (queueLength > maxQueueLength) {
+      return String.format("%d items are waiting in the build queue (limit %d)", queueLength, maxQueueLength);
+    }
+
+    int executors = 0;
+    int busy = 0;
+    for (Computer computer : jenkins.getComputers()) {
+      if (computer.isOnline()) {
+        executors += computer.countExecutors();
+        busy += computer.countBusy();
+      }
+    }
+    if (executors > 0 && busy * 100L > (long) executors * maxBusyExecutorsPercent) {
+      return String.format("%d of %d executors are busy (limit %d%%)", busy, executors, maxBusyExecutorsPercent);
+    }
+
+    if (gcTimePercent > maxGcTimePercent) {
+      return String.format("The JVM spent %d%% of the time in garbage collection since the last check (limit %d%%)",
+          gcTimePercent, maxGcTimePercent);
+    }
+    return null;
+  }
+
+  private long sampleGcTimePercent() {
+    long gcTimeMillis = totalGcTimeMillis();
+    long now = System.nanoTime();
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - lastSampleNanos);
+    if (elapsedMillis < MIN_GC_SAMPLE_MILLIS) {
+      // a single collection would dominate such a short window
+      return 0;
+    }
+    long percent = (gcTimeMillis - lastGcTimeMillis) * 100 / elapsedMillis;
+    lastGcTimeMillis = gcTimeMillis;
+    lastSampleNanos = now;
+    return percent;
+  }
+
+  private static long totalGcTimeMillis() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, gc.getCollectionTime());
+    }
+    return total;
+  }
+}
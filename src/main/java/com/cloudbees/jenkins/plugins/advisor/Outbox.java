@@ -0,0 +1,184 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.plugins.advisor.client.ResumableUpload;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bundles that could not be uploaded because the service was unreachable, kept on disk until it is reachable again.
+ *
+ * <p>A bundle is first moved under a temporary name, synced, then renamed atomically, so that a crash never leaves a
+ * partial bundle in the outbox. Temporary files left by a crash are deleted the next time the outbox is listed.
+ * Queued bundles are named after the time they were queued, so that they sort oldest first.</p>
+ */
+final class Outbox {
+
+  private static final Logger LOG = Logger.getLogger(Outbox.class.getName());
+
+  /**
+   * Total size of the queued bundles, in megabytes, beyond which bundles are evicted.
+   */
+  static final int MAX_SIZE_MEGABYTES = Integer.getInteger(Outbox.class.getName() + ".maxSizeMegabytes", 500);
+
+  /**
+   * Number of queued bundles beyond which bundles are evicted. {@code 0} disables the outbox.
+   */
+  static final int MAX_BUNDLES = Integer.getInteger(Outbox.class.getName() + ".maxBundles", 10);
+
+  /**
+   * {@code oldest-first} evicts the oldest bundles to make room for a new one. {@code newest-wins} only keeps the
+   * newest bundle, since it supersedes the older ones.
+   */
+  static final String EVICTION = System.getProperty(Outbox.class.getName() + ".eviction", "oldest-first");
+
+  /**
+   * Number of queued bundles uploaded concurrently once the service is reachable again.
+   */
+  static final int DRAIN_CONCURRENCY = Integer.getInteger(Outbox.class.getName() + ".drainConcurrency", 2);
+
+  static final String DIRECTORY = "advisor-outbox";
+
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String NAME_SEPARATOR = "-";
+
+  enum Eviction {
+    OLDEST_FIRST, NEWEST_WINS;
+
+    static Eviction parse(String value) {
+      try {
+        return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ENGLISH));
+      } catch (IllegalArgumentException e) {
+        LOG.warning(String.format("Unknown outbox eviction [%s]. Evicting the oldest bundles first.", value));
+        return OLDEST_FIRST;
+      }
+    }
+  }
+
+  private final File directory;
+  private final long maxBytes;
+  private final int maxBundles;
+  private final Eviction eviction;
+
+  Outbox(File directory, long maxBytes, int maxBundles, Eviction eviction) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.maxBundles = maxBundles;
+    this.eviction = eviction;
+  }
+
+  /**
+   * @return the outbox of this controller, configured from the system properties.
+   */
+  static Outbox get() {
+    return new Outbox(new File(Jenkins.getInstance().getRootDir(), DIRECTORY), MAX_SIZE_MEGABYTES * 1024L * 1024L,
+        MAX_BUNDLES, Eviction.parse(EVICTION));
+  }
+
+  /**
+   * @return the queued bundles, oldest first.
+   */
+  synchronized List<File> list() {
+    File[] files = directory.listFiles(File::isFile);
+    List<File> bundles = new ArrayList<>();
+    if (files == null) {
+      return bundles;
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.getName().endsWith(TEMP_SUFFIX)) {
+        // left by a crash during an earlier enqueue, enqueues hold the lock
+        delete(file);
+      } else if (!file.getName().endsWith(ResumableUpload.CHECKPOINT_SUFFIX)) {
+        bundles.add(file);
+      }
+    }
+    return bundles;
+  }
+
+  synchronized long getSizeBytes() {
+    long size = 0;
+    for (File bundle : list()) {
+      size += bundle.length();
+    }
+    return size;
+  }
+
+  /**
+   * Moves a bundle into the outbox, evicting queued bundles to stay within the budget.
+   *
+   * @param bundle the bundle to queue, moved away on success.
+   * @return the queued bundle, or {@code null} if the outbox is disabled or the bundle alone exceeds its budget.
+   * @throws IOException if the bundle cannot be moved.
+   */
+  synchronized File enqueue(File bundle) throws IOException {
+    long length = bundle.length();
+    if (maxBundles <= 0 || length > maxBytes) {
+      return null;
+    }
+    List<File> queued = list();
+    long size = 0;
+    for (File file : queued) {
+      size += file.length();
+    }
+    while (!queued.isEmpty() && (eviction == Eviction.NEWEST_WINS || queued.size() >= maxBundles
+        || size + length > maxBytes)) {
+      File evicted = queued.remove(0);
+      size -= evicted.length();
+      LOG.info(String.format("Evicting bundle %s from the outbox", evicted.getName()));
+      remove(evicted);
+    }
+
+    if (!directory.isDirectory()) {
+      Files.createDirectories(directory.toPath());
+    }
+    String name = String.format("%013d%s%s", System.currentTimeMillis(), NAME_SEPARATOR, bundle.getName());
+    File temp = new File(directory, name + TEMP_SUFFIX);
+    File target = new File(directory, name);
+    // a previous upload checkpoint does not apply to the queued copy
+    ResumableUpload.discard(bundle);
+    Files.move(bundle.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return target;
+  }
+
+  /**
+   * @param queued a bundle of the outbox.
+   * @return the name of the bundle before it was queued, to upload it under.
+   */
+  static String originalName(File queued) {
+    String name = queued.getName();
+    int separator = name.indexOf(NAME_SEPARATOR);
+    return separator > 0 ? name.substring(separator + NAME_SEPARATOR.length()) : name;
+  }
+
+  /**
+   * Deletes a queued bundle, once uploaded or evicted.
+   */
+  synchronized void remove(File bundle) {
+    ResumableUpload.discard(bundle);
+    delete(bundle);
+  }
+
+  private static void delete(File file) {
+    try {
+      Files.deleteIfExists(file.toPath());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to delete " + file, e);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a failed upload is retried. Transient failures, i.e. no response, a timeout, throttling or a server error,
+ * are retried with an exponential backoff. Other responses would fail the same way again and are not retried.
+ */
+final class RetryPolicy {
+
+  /**
+   * Number of attempts of an upload, the first one included. {@code 1} disables retries.
+   */
+  static final int MAX_ATTEMPTS = Integer.getInteger(RetryPolicy.class.getName() + ".maxAttempts", 5);
+
+  /**
+   * Delay before the first retry, doubled on each following one.
+   */
+  static final int INITIAL_DELAY_SECONDS = Integer.getInteger(
+      RetryPolicy.class.getName() + ".initialDelaySeconds", 60);
+
+  /**
+   * Upper bound of the delay between two attempts.
+   */
+  static final int MAX_DELAY_MINUTES = Integer.getInteger(RetryPolicy.class.getName() + ".maxDelayMinutes", 60);
+
+  private final int maxAttempts;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final Random random;
+
+  RetryPolicy() {
+    this(MAX_ATTEMPTS, TimeUnit.SECONDS.toMillis(INITIAL_DELAY_SECONDS), TimeUnit.MINUTES.toMillis(MAX_DELAY_MINUTES),
+        new Random());
+  }
+
+  RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, Random random) {
+    this.maxAttempts = maxAttempts;
+    this.initialDelayMillis = Math.max(1, initialDelayMillis);
+    this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+    this.random = random;
+  }
+
+  /**
+   * @param status the HTTP status of the failed upload, or {@code 0} if no response was received.
+   * @return {@code true} if the same upload may succeed later.
+   */
+  static boolean isRetryable(int status) {
+    switch (status) {
+      case 408: // request timeout
+      case 429: // too many requests
+      case 500:
+      case 502:
+      case 503:
+      case 504:
+        return true;
+      default:
+        return status <= 0;
+    }
+  }
+
+  int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param attempts the number of attempts made so far.
+   * @return {@code true} if another attempt is allowed.
+   */
+  boolean canRetry(int attempts) {
+    return attempts < maxAttempts;
+  }
+
+  /**
+   * The backoff doubles with each attempt up to the maximum delay. Only half of it is fixed, the other half is
+   * random, so that instances failing together do not retry together.
+   *
+   * @param attempts the number of attempts made so far, at least 1.
+   * @return the delay before the next attempt.
+   */
+  long delayMillis(int attempts) {
+    int doublings = Math.min(Math.max(0, attempts - 1), 30);
+    long backoff = Math.min(maxDelayMillis, initialDelayMillis << doublings);
+    long half = backoff / 2;
+    return backoff - half + (long) (random.nextDouble() * (half + 1));
+  }
+}
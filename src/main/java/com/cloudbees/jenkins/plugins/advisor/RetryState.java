@@ -0,0 +1,95 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The pending retry of a failed upload, saved so that it survives a restart of the controller.
+ */
+final class RetryState {
+
+  private static final Logger LOG = Logger.getLogger(RetryState.class.getName());
+
+  private final String bundle;
+  private final int attempts;
+  private final long nextAttempt;
+  private final String lastError;
+
+  RetryState(@CheckForNull File bundle, int attempts, long nextAttempt, String lastError) {
+    this.bundle = bundle != null ? bundle.getAbsolutePath() : null;
+    this.attempts = attempts;
+    this.nextAttempt = nextAttempt;
+    this.lastError = lastError;
+  }
+
+  /**
+   * @return the bundle to upload again, or {@code null} if it was piped into the request and must be generated again.
+   */
+  @CheckForNull
+  File getBundle() {
+    return bundle != null ? new File(bundle) : null;
+  }
+
+  /**
+   * @return the number of attempts made so far.
+   */
+  int getAttempts() {
+    return attempts;
+  }
+
+  Date getNextAttempt() {
+    return new Date(nextAttempt);
+  }
+
+  long getDelayMillis() {
+    return Math.max(0, nextAttempt - System.currentTimeMillis());
+  }
+
+  String getLastError() {
+    return lastError;
+  }
+
+  /**
+   * @return the pending retry, or {@code null} if there is none.
+   */
+  @CheckForNull
+  static RetryState load() {
+    XmlFile file = getConfigFile();
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      return (RetryState) file.read();
+    } catch (IOException | ClassCastException e) {
+      LOG.log(Level.WARNING, "Failed to load " + file, e);
+      return null;
+    }
+  }
+
+  void save() {
+    XmlFile file = getConfigFile();
+    try {
+      file.write(this);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to save " + file, e);
+    }
+  }
+
+  static void clear() {
+    File file = getConfigFile().getFile();
+    if (file.exists() && !file.delete()) {
+      LOG.warning("Failed to delete " + file);
+    }
+  }
+
+  private static XmlFile getConfigFile() {
+    return new XmlFile(new File(Jenkins.getInstance().getRootDir(), RetryState.class.getName() + ".xml"));
+  }
+}
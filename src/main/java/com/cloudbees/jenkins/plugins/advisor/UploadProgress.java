@@ -0,0 +1,257 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.plugins.advisor.client.UploadListener;
+import hudson.Util;
+import net.sf.json.JSONObject;
+
+import javax.annotation.CheckForNull;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of a bundle run, updated by the generator and the upload as they go, and read by the management page.
+ * The byte counters come from counting streams around the bundle and around the upload request.
+ */
+public final class UploadProgress implements UploadListener {
+
+  /**
+   * Minimum time between two throughput samples, so that the throughput is not skewed by buffering.
+   */
+  private static final long RATE_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final long startTime = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+
+  private volatile boolean generating;
+  private volatile boolean uploading;
+  private volatile boolean finished;
+  private volatile String result;
+
+  private volatile int componentIndex;
+  private volatile int componentCount;
+  private volatile String componentName;
+  private volatile long generationStartNanos;
+
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private volatile long bytesSent;
+  private volatile long totalBytes = -1;
+  private volatile long bytesPerSecond;
+  private long sampleNanos;
+  private long sampleBytes;
+
+  void startGeneration(int componentCount) {
+    this.componentCount = componentCount;
+    componentIndex = 0;
+    generationStartNanos = System.nanoTime();
+    generating = true;
+  }
+
+  /**
+   * @param index       the index of the component being generated, which is also the number of components done.
+   * @param displayName the name of the component.
+   */
+  void startComponent(int index, String displayName) {
+    componentIndex = index;
+    componentName = displayName;
+  }
+
+  void endGeneration() {
+    componentIndex = componentCount;
+    componentName = null;
+    generating = false;
+  }
+
+  /**
+   * @param out the stream the bundle is written to.
+   * @return a stream counting the bytes of the bundle written to {@code out}.
+   */
+  OutputStream countWritten(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        out.write(b);
+        bytesWritten.incrementAndGet();
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        bytesWritten.addAndGet(len);
+      }
+    };
+  }
+
+  /**
+   * @param totalBytes the number of bytes to send, or {@code -1} if it is not known upfront.
+   */
+  void startUpload(long totalBytes) {
+    this.totalBytes = totalBytes;
+    uploading = true;
+  }
+
+  @Override
+  public synchronized void onBytesSent(long bytes) {
+    long now = System.nanoTime();
+    if (sampleNanos == 0 || bytes < sampleBytes) {
+      // first call, or a new request of a retried upload
+      sampleNanos = now;
+      sampleBytes = bytes;
+    } else if (now - sampleNanos >= RATE_SAMPLE_NANOS) {
+      bytesPerSecond = (bytes - sampleBytes) * TimeUnit.SECONDS.toNanos(1) / (now - sampleNanos);
+      sampleNanos = now;
+      sampleBytes = bytes;
+    }
+    bytesSent = bytes;
+  }
+
+  void finish(@CheckForNull String result) {
+    this.result = result;
+    generating = false;
+    uploading = false;
+    finished = true;
+  }
+
+  /**
+   * @return {@code generating}, {@code uploading}, {@code finished}, or {@code starting} before either began. A
+   * pipelined upload reports {@code generating} until the last component is written.
+   */
+  public String getPhase() {
+    if (finished) {
+      return "finished";
+    }
+    if (generating) {
+      return "generating";
+    }
+    return uploading ? "uploading" : "starting";
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * @return the outcome of the run once finished, as shown in the last bundle result.
+   */
+  @CheckForNull
+  public String getResult() {
+    return result;
+  }
+
+  /**
+   * @return the 1-based number of the component being generated.
+   */
+  public int getComponentNumber() {
+    return Math.min(componentIndex + 1, componentCount);
+  }
+
+  public int getComponentCount() {
+    return componentCount;
+  }
+
+  @CheckForNull
+  public String getComponentName() {
+    return componentName;
+  }
+
+  /**
+   * @return the bytes of the bundle written so far.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * @return the bytes of the upload request sent so far.
+   */
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  /**
+   * @return the bytes to send, or {@code -1} if they are not known upfront, e.g. when the bundle is piped or encoded.
+   */
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * @return the throughput of the upload over the last sample, or {@code 0} before the first sample.
+   */
+  public long getBytesPerSecond() {
+    return uploading ? bytesPerSecond : 0;
+  }
+
+  /**
+   * @return the estimated time left in the current phase, or {@code -1} if it cannot be estimated yet.
+   */
+  public long getEtaMillis() {
+    if (finished) {
+      return 0;
+    }
+    if (generating) {
+      int done = componentIndex;
+      if (done == 0) {
+        return -1;
+      }
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - generationStartNanos);
+      return elapsed * (componentCount - done) / done;
+    }
+    long rate = getBytesPerSecond();
+    if (totalBytes > 0 && rate > 0) {
+      return Math.max(0, totalBytes - bytesSent) * 1000 / rate;
+    }
+    return -1;
+  }
+
+  public Date getStartedAt() {
+    return new Date(startTime);
+  }
+
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  public String getBytesWrittenSize() {
+    return GenerationHistory.formatBytes(getBytesWritten());
+  }
+
+  public String getBytesSentSize() {
+    return GenerationHistory.formatBytes(getBytesSent());
+  }
+
+  public String getTotalSize() {
+    return GenerationHistory.formatBytes(getTotalBytes());
+  }
+
+  public String getThroughput() {
+    return GenerationHistory.formatBytes(getBytesPerSecond()) + "/s";
+  }
+
+  public String getEta() {
+    long eta = getEtaMillis();
+    return eta < 0 ? "N/A" : Util.getTimeSpanString(eta);
+  }
+
+  /**
+   * @return the progress, in the format served by the management page.
+   */
+  public JSONObject toJSON() {
+    return new JSONObject()
+        .element("phase", getPhase())
+        .element("startedAt", startTime)
+        .element("elapsedMillis", getElapsedMillis())
+        .element("componentNumber", getComponentNumber())
+        .element("componentCount", getComponentCount())
+        .element("componentName", getComponentName() != null ? getComponentName() : "")
+        .element("bytesWritten", getBytesWritten())
+        .element("bytesSent", getBytesSent())
+        .element("totalBytes", getTotalBytes())
+        .element("bytesPerSecond", getBytesPerSecond())
+        .element("etaMillis", getEtaMillis())
+        .element("result", getResult() != null ? getResult() : "");
+  }
+}
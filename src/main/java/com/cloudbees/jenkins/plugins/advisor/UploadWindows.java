@@ -0,0 +1,133 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import antlr.ANTLRException;
+import hudson.scheduler.CronTabList;
+import hudson.scheduler.Hash;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The periods of time during which bundles may be generated and uploaded, written one per line in cron syntax.
+ * A window is made of the minutes matched by its line: {@code * 1-5 * * *} allows uploads from 01:00 to 05:59 every
+ * day, {@code * 22-23 * * 6,7} on weekend evenings. {@code H} is hashed from the instance id.
+ */
+final class UploadWindows {
+
+  private static final Logger LOG = Logger.getLogger(UploadWindows.class.getName());
+
+  /**
+   * Windows are searched at most a week ahead, the longest period a cron line can describe.
+   */
+  private static final int SEARCH_LIMIT_MINUTES = 7 * 24 * 60;
+
+  private final List<CronTabList> windows;
+
+  private UploadWindows(List<CronTabList> windows) {
+    this.windows = windows;
+  }
+
+  /**
+   * Parses the configured windows. Invalid lines are logged and ignored.
+   *
+   * @param spec the windows, one cron line per line; blank lines and {@code #} comments are ignored.
+   * @return the windows, empty if uploads are allowed at any time.
+   */
+  static UploadWindows parse(@CheckForNull String spec) {
+    List<CronTabList> windows = new ArrayList<>();
+    if (spec != null) {
+      for (String line : spec.split("\\r?\\n")) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+          continue;
+        }
+        try {
+          windows.add(CronTabList.create(trimmed, hash()));
+        } catch (ANTLRException | IllegalArgumentException e) {
+          LOG.warning(String.format("Ignoring invalid upload window [%s]: %s", trimmed, e.getMessage()));
+        }
+      }
+    }
+    return new UploadWindows(windows);
+  }
+
+  /**
+   * @param spec the windows, as accepted by {@link #parse(String)}.
+   * @return the error of the first invalid line, or {@code null} if all lines are valid.
+   */
+  @CheckForNull
+  static String validate(@CheckForNull String spec) {
+    if (spec == null) {
+      return null;
+    }
+    for (String line : spec.split("\\r?\\n")) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      try {
+        CronTabList.create(trimmed, hash());
+      } catch (ANTLRException | IllegalArgumentException e) {
+        return String.format("Invalid upload window [%s]: %s", trimmed, e.getMessage());
+      }
+    }
+    return null;
+  }
+
+  private static Hash hash() {
+    Jenkins jenkins = Jenkins.getInstanceOrNull();
+    return Hash.forSeed(jenkins != null ? jenkins.getLegacyInstanceId() : "");
+  }
+
+  boolean isEmpty() {
+    return windows.isEmpty();
+  }
+
+  boolean contains(Calendar time) {
+    for (CronTabList window : windows) {
+      if (window.check(time)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param from the time to search from.
+   * @return the first minute inside a window at or after {@code from}, or {@code null} if there is none within a week.
+   */
+  @CheckForNull
+  Calendar nextStart(Calendar from) {
+    return search(from, true);
+  }
+
+  /**
+   * @param from a time inside a window.
+   * @return the first minute outside of all windows after {@code from}, or {@code null} if uploads are allowed for
+   * the whole coming week.
+   */
+  @CheckForNull
+  Calendar end(Calendar from) {
+    return search(from, false);
+  }
+
+  private Calendar search(Calendar from, boolean inside) {
+    Calendar time = (Calendar) from.clone();
+    if (time.get(Calendar.SECOND) != 0 || time.get(Calendar.MILLISECOND) != 0) {
+      time.set(Calendar.SECOND, 0);
+      time.set(Calendar.MILLISECOND, 0);
+      time.add(Calendar.MINUTE, 1);
+    }
+    for (int i = 0; i < SEARCH_LIMIT_MINUTES; i++) {
+      if (contains(time) == inside) {
+        return time;
+      }
+      time.add(Calendar.MINUTE, 1);
+    }
+    return null;
+  }
+}
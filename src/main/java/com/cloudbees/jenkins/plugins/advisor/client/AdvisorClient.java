@@ -9,6 +9,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,50 +25,243 @@ public class AdvisorClient {
 
   private final AccountCredentials credentials;
 
+  private UploadListener uploadListener = UploadListener.NONE;
+  private long deadline = Timeouts.NO_DEADLINE;
+  private BundleCodec codec;
+  private int threadPriority = Thread.NORM_PRIORITY;
+  private volatile MultipartConnection activeUpload;
+  private volatile ResumableUpload activeResumableUpload;
+  private volatile HttpURLConnection activeConnection;
+  private volatile boolean aborted;
+
   public AdvisorClient(AccountCredentials accountCredentials) {
     this.credentials = accountCredentials;
   }
 
+  /**
+   * @param uploadListener notified of the progress of the uploads made by this client.
+   * @return this client.
+   */
+  public AdvisorClient withUploadListener(UploadListener uploadListener) {
+    this.uploadListener = uploadListener;
+    return this;
+  }
+
+  /**
+   * @param deadline the time in milliseconds past which this client makes no call, capping the timeouts of each call.
+   * @return this client.
+   */
+  public AdvisorClient withDeadline(long deadline) {
+    this.deadline = deadline;
+    return this;
+  }
+
+  /**
+   * @param codec the codec of the uploads made by this client, so that they match how the bundle was generated. By
+   *              default each upload resolves the configured codec.
+   * @return this client.
+   */
+  public AdvisorClient withCodec(BundleCodec codec) {
+    this.codec = codec;
+    return this;
+  }
+
+  /**
+   * @param threadPriority the priority of the I/O thread while it uploads a bundle, e.g. to keep the generation of a
+   *                       piped bundle from competing with the controller. The thread is restored afterwards.
+   * @return this client.
+   */
+  public AdvisorClient withThreadPriority(int threadPriority) {
+    this.threadPriority = threadPriority;
+    return this;
+  }
+
+  /**
+   * Sends a test email, waiting for the outcome. See {@link #testEmailAsync()}.
+   */
   public String doTestEmail() {
+    return await(testEmailAsync());
+  }
+
+  /**
+   * Checks the health of the service, waiting for the outcome. See {@link #checkHealthAsync()}.
+   */
+  public String doCheckHealth() {
+    return await(checkHealthAsync());
+  }
+
+  /**
+   * Uploads a bundle, waiting for the outcome. See {@link #uploadFileAsync(ClientUploadRequest)}.
+   */
+  public ClientResponse uploadFile(ClientUploadRequest uploadRequest) {
+    return await(uploadFileAsync(uploadRequest));
+  }
+
+  /**
+   * Sends a test email from the I/O threads of {@link ClientExecutor}. Cancelling the future, or failing it with
+   * {@link ClientExecutor#withTimeout}, aborts the call and this client.
+   *
+   * @return the outcome of the call, failed with an unchecked exception if the email could not be sent.
+   */
+  public CompletableFuture<String> testEmailAsync() {
+    return ClientExecutor.supply(this::testEmail, this::abort);
+  }
+
+  /**
+   * Checks the health of the service from the I/O threads of {@link ClientExecutor}. Cancelling the future, or
+   * failing it with {@link ClientExecutor#withTimeout}, aborts the call and this client.
+   *
+   * @return the outcome of the call, failed with an unchecked exception if the service is not healthy.
+   */
+  public CompletableFuture<String> checkHealthAsync() {
+    return ClientExecutor.supply(this::checkHealth, this::abort);
+  }
+
+  /**
+   * Uploads a bundle from the I/O threads of {@link ClientExecutor}, after checking the health of the service.
+   * Cancelling the future, or failing it with {@link ClientExecutor#withTimeout}, aborts the upload and this client.
+   *
+   * @return the response to the upload, failed with an unchecked exception if no response was received.
+   */
+  public CompletableFuture<ClientResponse> uploadFileAsync(ClientUploadRequest uploadRequest) {
+    return ClientExecutor.supply(() -> {
+      Thread thread = Thread.currentThread();
+      int priority = thread.getPriority();
+      thread.setPriority(threadPriority);
+      try {
+        return upload(uploadRequest);
+      } finally {
+        thread.setPriority(priority);
+      }
+    }, this::abort);
+  }
+
+  /**
+   * Aborts the call in progress, if any, and any call started afterwards by this client. The call in progress
+   * fails and the abort is not recorded as a failure.
+   */
+  public void abort() {
+    aborted = true;
+    abortUpload();
+    HttpURLConnection con = activeConnection;
+    if (con != null) {
+      ConnectionManager.get().discard(con);
+    }
+  }
+
+  /**
+   * Aborts the upload in progress, if any, without aborting this client.
+   */
+  private void abortUpload() {
+    MultipartConnection multipart = activeUpload;
+    if (multipart != null) {
+      multipart.abort();
+    }
+    ResumableUpload resumable = activeResumableUpload;
+    if (resumable != null) {
+      resumable.abort();
+    }
+  }
+
+  /**
+   * Waits for a call, cancelling it if the caller is interrupted.
+   */
+  private static <T> T await(CompletableFuture<T> call) {
     try {
-      HttpURLConnection con = HttpUrlConnectionFactory.openGetConnection(AdvisorClientConfig.testEmailURI(credentials.getUsername()));
+      return call.get();
+    } catch (InterruptedException e) {
+      call.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InsightsUploadFileException("Interrupted while waiting for the service");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new InsightsAuthenticationException(String.valueOf(cause), cause);
+    }
+  }
+
+  private String testEmail() {
+    // sent on demand, so it is not held back by the circuit breaker but tells whether the service is up
+    int responseCode = 0;
+    try {
+      HttpURLConnection con = openGetConnection(AdvisorClientConfig.testEmailURI(credentials.getUsername()), Timeouts.testEmail());
 
-      int responseCode = con.getResponseCode();
+      responseCode = con.getResponseCode();
+      ConnectionManager.get().release(con);
 
       if(responseCode == HttpURLConnection.HTTP_OK) {
         return EMAIL_SUCCESS;
       } else {
-        throw new IOException("Unable to check response from the server: " + responseCode);
+        throw new HttpStatusException(responseCode, "Unable to check response from the server: " + responseCode);
       }
 
     } catch (Exception e) {
-      throw new InsightsAuthenticationException("Exception while attempting to send test email. Message: " + e);
+      throw new InsightsAuthenticationException("Exception while attempting to send test email. Message: " + e, e);
+    } finally {
+      activeConnection = null;
+      if (!aborted) {
+        // a call that got no response is a failure too, recorded as such
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+          AdvisorMetrics.get().recordFailure(responseCode);
+        }
+        CircuitBreaker.get().record(responseCode);
+      }
     }
   }
 
-  public String doCheckHealth() {
+  private String checkHealth() {
+    CircuitBreaker breaker = CircuitBreaker.get();
+    if (!breaker.allowRequest()) {
+      throw new InsightsAuthenticationException(String.format(
+          "The service failed the last %d calls, they are suspended until %s. Last failure: %s",
+          breaker.getConsecutiveFailures(), breaker.getNextProbe(), breaker.getLastFailure()));
+    }
+    long start = System.nanoTime();
+    int responseCode = 0;
     try {
-      HttpURLConnection con = HttpUrlConnectionFactory.openGetConnection(AdvisorClientConfig.healthURI());
+      HttpURLConnection con = openGetConnection(AdvisorClientConfig.healthURI(), Timeouts.healthCheck());
 
-      int responseCode = con.getResponseCode();
+      responseCode = con.getResponseCode();
+      ConnectionManager.get().release(con);
 
       if(responseCode == HttpURLConnection.HTTP_OK) {
         return HEALTH_SUCCESS;
       } else {
-        throw new IOException("Unable to check response from the server: " + responseCode);
+        throw new HttpStatusException(responseCode, "Unable to check response from the server: " + responseCode);
       }
 
     } catch (Exception e) {
-      throw new InsightsAuthenticationException("Exception when attempting to check health. Message: " + e);
+      throw new InsightsAuthenticationException("Exception when attempting to check health. Message: " + e, e);
+    } finally {
+      activeConnection = null;
+      if (!aborted) {
+        AdvisorMetrics.get().recordHealthCheck(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), responseCode);
+        breaker.record(responseCode);
+      }
     }
   }
 
-  public ClientResponse uploadFile(ClientUploadRequest uploadRequest) {
+  private HttpURLConnection openGetConnection(String spec, Timeouts timeouts) throws IOException {
+    if (aborted) {
+      throw new IOException("The call was aborted");
+    }
+    HttpURLConnection con = HttpUrlConnectionFactory.openGetConnection(spec, timeouts.withDeadline(deadline));
+    activeConnection = con;
+    return con;
+  }
+
+  private ClientResponse upload(ClientUploadRequest uploadRequest) {
     try {
-      doCheckHealth();
+      // if enabled, a call that just succeeded tells as much as a health check, without the round trip
+      long maxAge = TimeUnit.SECONDS.toMillis(AdvisorClientConfig.healthCheckMaxAgeSeconds());
+      if (maxAge <= 0 || !CircuitBreaker.get().isRecentlyAvailable(maxAge)) {
+        checkHealth();
+      }
       return doUploadFile(uploadRequest);
     } catch(Exception e) {
-      throw new InsightsAuthenticationException("An error occurred while checking server status during bundle upload. Message: " + e);
+      throw new InsightsAuthenticationException("An error occurred while checking server status during bundle upload. Message: " + e, e);
     }
   }
 
@@ -74,21 +271,81 @@ public class AdvisorClient {
 
     String requestURL = AdvisorClientConfig.apiUploadURI(credentials.getUsername(), r.getInstanceId(), cc);
 
+    int chunkSize = AdvisorClientConfig.resumableUploadChunkSize();
+    boolean resumable = uploadFile != null && chunkSize > 0;
+    BundleCodec codec = this.codec != null ? this.codec : BundleCodec.fromConfig();
+    // the size of an encoded or streamed body is not known upfront
+    long expectedBytes = uploadFile != null && (resumable || codec.isIdentity()) ? uploadFile.length() : -1;
+    BandwidthEstimator bandwidth = BandwidthEstimator.get();
+    long timeoutMillis = expectedBytes > 0 ? bandwidth.uploadTimeoutMillis(expectedBytes) : 0;
+    long stallMillis = TimeUnit.SECONDS.toMillis(AdvisorClientConfig.uploadStallTimeoutSeconds());
+    if (stallMillis > 0 && resumable) {
+      // the progress of a resumable upload is only known once each chunk is acknowledged
+      stallMillis = Math.max(stallMillis, bandwidth.transferMillis(chunkSize));
+    }
+    Timeouts timeouts = Timeouts.upload().withDeadline(deadline);
+    if (timeoutMillis > 0) {
+      timeouts = timeouts.withDeadline(System.currentTimeMillis() + timeoutMillis);
+    }
+    UploadWatchdog watchdog = new UploadWatchdog(uploadListener, expectedBytes, timeoutMillis, stallMillis,
+        this::abortUpload, System::currentTimeMillis);
+    MultipartConnection multipart = null;
+    long start = System.nanoTime();
     try {
-      MultipartConnection multipart = new MultipartConnection(requestURL, StandardCharsets.UTF_8);
-
-      multipart.addHeader("X-ADVISOR-PLUGIN-VERSION", r.getPluginVersion() != null ? r.getPluginVersion() : "N/A");
-      multipart.connect();
+      if (aborted) {
+        throw new IOException("The upload was aborted");
+      }
+      watchdog.start();
+      ClientResponse clientResponse;
+      if (resumable) {
+        ResumableUpload upload = new ResumableUpload(credentials.getUsername(), r, chunkSize)
+            .withUploadListener(watchdog)
+            .withTimeouts(timeouts);
+        activeResumableUpload = upload;
+        if (aborted) {
+          throw new IOException("The upload was aborted");
+        }
+        clientResponse = upload.upload();
+      } else {
+        multipart = new MultipartConnection(requestURL, StandardCharsets.UTF_8, timeouts);
+        activeUpload = multipart;
+        multipart.setUploadListener(watchdog);
+        if (aborted) {
+          throw new IOException("The upload was aborted");
+        }
 
-      multipart.addFilePart("file", uploadFile);
+        multipart.addHeader("X-ADVISOR-PLUGIN-VERSION", r.getPluginVersion() != null ? r.getPluginVersion() : "N/A");
+        if (uploadFile != null && codec.isIdentity()) {
+          multipart.connect(multipart.getContentLength("file", r.getFileName(), uploadFile));
+          multipart.addFilePart("file", r.getFileName(), uploadFile);
+        } else {
+          // the encoded size is not known upfront
+          if (!codec.isIdentity()) {
+            codec.addHeaders(multipart);
+          }
+          PayloadWriter payload = uploadFile != null ? out -> Files.copy(uploadFile.toPath(), out) : r.getPayload();
+          multipart.connect();
+          multipart.addStreamPart("file", r.getFileName(), codec.encode(payload));
+        }
 
-      ClientResponse clientResponse = multipart.finish();
+        clientResponse = multipart.finish();
+      }
 
+      CircuitBreaker.get().record(clientResponse.getCode());
+      long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      // a resumed upload only sends the bytes past the offset acknowledged before
+      long bytes = multipart != null ? multipart.getBytesWritten() : watchdog.getBytesTransferred();
       if (clientResponse.getCode() == HttpURLConnection.HTTP_OK) {
+        AdvisorMetrics.get().recordUploadSuccess(duration, bytes);
+        if (expectedBytes > 0) {
+          // a streamed bundle is sent as fast as it is generated, which tells nothing about the bandwidth
+          bandwidth.record(bytes, duration);
+        }
         if (LOG.isLoggable(Level.INFO)) {
           LOG.info(String.format("Bundle successfully uploaded. Response code was: %s", clientResponse.getCode()));
         }
       } else {
+        AdvisorMetrics.get().recordUploadFailure(duration, bytes, clientResponse.getCode());
         if (LOG.isLoggable(Level.SEVERE)) {
           LOG.severe(String.format("Bundle upload failed. Response code was: [%s]. Response message: [%s]",
               clientResponse.getCode(), clientResponse.getMessage()));
@@ -97,25 +354,51 @@ public class AdvisorClient {
 
       return clientResponse;
     } catch (Exception e) {
+      // the watchdog tells why the connection it aborted failed
+      String reason = watchdog.getFailure() != null ? watchdog.getFailure() : e.getMessage();
+      long bytes = watchdog.getBytesTransferred();
+      if (multipart != null) {
+        bytes = multipart.getBytesWritten();
+        multipart.abort();
+      }
+      if (!aborted) {
+        AdvisorMetrics.get().recordUploadFailure(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), bytes, 0);
+        CircuitBreaker.get().recordFailure(String.valueOf(reason));
+      }
       String message = String.format(
           "Exception trying to upload support bundle. Message: [%s], File: [%s], Metadata: [%s]",
-          e.getMessage(), r.getFile(), FileHelper.getFileMetadata(r.getFile()));
+          reason, uploadFile != null ? uploadFile : r.getFileName(), uploadFile != null ? FileHelper.getFileMetadata(uploadFile) : "streamed");
 
       LOG.log(Level.SEVERE, message, e.getCause());
 
-      throw new InsightsUploadFileException(message);
+      throw new InsightsUploadFileException(message, e);
+    } finally {
+      watchdog.stop();
+      activeUpload = null;
+      activeResumableUpload = null;
     }
   }
 
+  /**
+   * The cause is kept so that the caller can find the {@link HttpStatusException} the call failed with, if any.
+   */
   private static final class InsightsAuthenticationException extends RuntimeException {
     private InsightsAuthenticationException(String message) {
       super(message);
     }
+
+    private InsightsAuthenticationException(String message, Throwable cause) {
+      super(message, cause);
+    }
   }
 
   private static final class InsightsUploadFileException extends RuntimeException {
     private InsightsUploadFileException(String message) {
       super(message);
     }
+
+    private InsightsUploadFileException(String message, Throwable cause) {
+      super(message, cause);
+    }
   }
 }
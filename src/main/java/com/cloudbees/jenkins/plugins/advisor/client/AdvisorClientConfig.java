@@ -4,11 +4,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import static java.lang.String.format;
 
 public class AdvisorClientConfig {
 
+  /**
+   * Largest chunk of a resumable upload, each chunk is held in memory while it is sent.
+   */
+  static final int MAX_RESUMABLE_UPLOAD_CHUNK_SIZE_KILOBYTES = 64 * 1024;
+
+  private static final Logger LOG = Logger.getLogger(AdvisorClientConfig.class.getName());
+
   private static final class ResourceHolder {
 
     private static final Properties INSTANCE = loadProperties();
@@ -62,6 +71,152 @@ public class AdvisorClientConfig {
     return (int) TimeUnit.MINUTES.toMillis(advisorUploadIdleTimeoutMinutes());
   }
 
+  /**
+   * @return the connect timeout of the health checks.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int healthCheckConnectTimeoutMilliseconds() {
+    return timeoutMilliseconds("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorHealthCheckConnectTimeoutSeconds", 10);
+  }
+
+  /**
+   * @return the read timeout of the health checks.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int healthCheckReadTimeoutMilliseconds() {
+    return timeoutMilliseconds("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorHealthCheckReadTimeoutSeconds", 30);
+  }
+
+  /**
+   * @return the connect timeout of the test emails.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int testEmailConnectTimeoutMilliseconds() {
+    return timeoutMilliseconds("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorTestEmailConnectTimeoutSeconds", 10);
+  }
+
+  /**
+   * @return the read timeout of the test emails.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int testEmailReadTimeoutMilliseconds() {
+    return timeoutMilliseconds("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorTestEmailReadTimeoutSeconds", 60);
+  }
+
+  /**
+   * Size of the chunks sent by a resumable upload. {@code 0} disables resumable uploads and sends the bundle in a
+   * single request. Sizes above {@link #MAX_RESUMABLE_UPLOAD_CHUNK_SIZE_KILOBYTES} are capped, and invalid sizes
+   * disable resumable uploads.
+   *
+   * @return the chunk size in bytes.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int resumableUploadChunkSize() {
+    String key = "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorResumableUploadChunkSizeKilobytes";
+    String value = resolveProperty(key);
+    if (isEmpty(value)) {
+      return 0;
+    }
+    long kilobytes;
+    try {
+      kilobytes = Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      LOG.warning(format("Ignoring invalid %s=%s, resumable uploads are disabled", key, value));
+      return 0;
+    }
+    if (kilobytes < 0) {
+      LOG.warning(format("Ignoring negative %s=%s, resumable uploads are disabled", key, value));
+      return 0;
+    }
+    if (kilobytes > MAX_RESUMABLE_UPLOAD_CHUNK_SIZE_KILOBYTES) {
+      LOG.warning(format("%s=%s is too large, using %d instead", key, value, MAX_RESUMABLE_UPLOAD_CHUNK_SIZE_KILOBYTES));
+      kilobytes = MAX_RESUMABLE_UPLOAD_CHUNK_SIZE_KILOBYTES;
+    }
+    return (int) kilobytes * 1024;
+  }
+
+  /**
+   * @return the name of the codec applied to the bundle before it is uploaded, {@code identity} by default.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static String bundleCodec() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorBundleCodec");
+    return isEmpty(value) ? BundleCodec.IDENTITY : value.trim();
+  }
+
+  /**
+   * @return the compression level of the bundle codec, from 0 to 9.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int bundleCodecLevel() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorBundleCodecLevel");
+    return isEmpty(value) ? Deflater.DEFAULT_COMPRESSION : Integer.valueOf(value.trim());
+  }
+
+  /**
+   * @return the path of the preset dictionary of the bundle codec, or {@code null} if none is used.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static String bundleCodecDictionary() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorBundleCodecDictionary");
+    return isEmpty(value) || value.trim().isEmpty() ? null : value.trim();
+  }
+
+  /**
+   * @return the number of consecutive failed calls opening the circuit breaker, {@code 0} to disable it.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int circuitBreakerFailureThreshold() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorCircuitBreakerFailureThreshold");
+    return isEmpty(value) ? 5 : Integer.valueOf(value.trim());
+  }
+
+  /**
+   * @return the time the circuit breaker stays open before it lets a call through as a probe.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int circuitBreakerOpenMinutes() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorCircuitBreakerOpenMinutes");
+    return isEmpty(value) ? 30 : Integer.valueOf(value.trim());
+  }
+
+  /**
+   * @return how recent a successful call must be for an upload to skip its health check, {@code 0} to always check.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int healthCheckMaxAgeSeconds() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorHealthCheckMaxAgeSeconds");
+    return isEmpty(value) ? 0 : Integer.valueOf(value.trim());
+  }
+
+  /**
+   * @return the factor applied to the expected duration of an upload to get its timeout, {@code 0} to only rely on the
+   * upload timeouts.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int uploadTimeoutSafetyFactor() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorUploadTimeoutSafetyFactor");
+    return isEmpty(value) ? 4 : Integer.valueOf(value.trim());
+  }
+
+  /**
+   * @return the bandwidth assumed for the uploads until one was measured.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int uploadDefaultBandwidthKilobytesPerSecond() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorUploadDefaultBandwidthKilobytesPerSecond");
+    return isEmpty(value) ? 64 : Integer.valueOf(value.trim());
+  }
+
+  /**
+   * @return the time without progress after which an upload is aborted, {@code 0} to never abort it.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static int uploadStallTimeoutSeconds() {
+    String value = resolveProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorUploadStallTimeoutSeconds");
+    return isEmpty(value) ? 120 : Integer.valueOf(value.trim());
+  }
+
   @SuppressWarnings("WeakerAccess")
   public static String healthURI() {
     return advisorURL() + "/api/health";
@@ -86,6 +241,22 @@ public class AdvisorClientConfig {
     }
   }
 
+  @SuppressWarnings("WeakerAccess")
+  public static String apiChunkUploadURI(String username, String instanceId, String uploadId) {
+    return apiUploadURI(username, instanceId) + format("/chunks/%s", uploadId);
+  }
+
+  @SuppressWarnings("WeakerAccess")
+  public static String apiChunkUploadCompleteURI(String username, String instanceId, String uploadId, String cc) {
+    String uri = apiChunkUploadURI(username, instanceId, uploadId) + "/complete";
+    return cc != null ? uri + format("?cc=%s", cc) : uri;
+  }
+
+  private static int timeoutMilliseconds(String key, int defaultSeconds) {
+    String value = resolveProperty(key);
+    return (int) TimeUnit.SECONDS.toMillis(isEmpty(value) ? defaultSeconds : Integer.valueOf(value.trim()));
+  }
+
   /**
    * Recursively resolves a property value, taking property substitution into account, and allowing System property
    * overrides to take precedence.
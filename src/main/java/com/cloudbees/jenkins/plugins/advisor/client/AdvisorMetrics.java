@@ -0,0 +1,341 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import net.sf.json.JSONObject;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters, gauges and latency histograms of the bundle generation and of the calls to the Advisor service.
+ * Published over JMX as {@value #OBJECT_NAME} and as JSON under the plugin's management page.
+ */
+public final class AdvisorMetrics implements AdvisorMetricsMXBean {
+
+  private static final Logger LOG = Logger.getLogger(AdvisorMetrics.class.getName());
+
+  static final String OBJECT_NAME = "com.cloudbees.jenkins.plugins.advisor:type=AdvisorMetrics";
+
+  static final String CONNECTION_FAILURE = "connection";
+
+  private static final AdvisorMetrics INSTANCE = new AdvisorMetrics();
+
+  static {
+    register(INSTANCE);
+  }
+
+  private final AtomicLong uploadsSucceeded = new AtomicLong();
+  private final AtomicLong uploadsFailed = new AtomicLong();
+  private final AtomicLong uploadsCancelled = new AtomicLong();
+  private final AtomicLong healthChecksSucceeded = new AtomicLong();
+  private final AtomicLong healthChecksFailed = new AtomicLong();
+  private final Map<String, AtomicLong> failuresByStatus = new ConcurrentHashMap<>();
+  private final AtomicLong bytesSent = new AtomicLong();
+
+  private volatile long lastBundleSizeBytes;
+  private volatile long lastGenerationDurationMillis;
+  private volatile long lastUploadDurationMillis;
+  private volatile long lastUploadBytesPerSecond;
+
+  private final Histogram generationDuration = new Histogram();
+  private final Histogram uploadDuration = new Histogram();
+  private final Histogram healthCheckLatency = new Histogram();
+
+  AdvisorMetrics() {
+  }
+
+  public static AdvisorMetrics get() {
+    return INSTANCE;
+  }
+
+  private static void register(AdvisorMetrics metrics) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      try {
+        server.registerMBean(metrics, name);
+      } catch (InstanceAlreadyExistsException e) {
+        // left behind by a previous load of the plugin
+        server.unregisterMBean(name);
+        server.registerMBean(metrics, name);
+      }
+    } catch (Exception e) {
+      LOG.log(Level.WARNING, "Unable to register the CloudBees Jenkins Advisor metrics MBean", e);
+    }
+  }
+
+  public void recordGeneration(long durationMillis, long bundleSizeBytes) {
+    lastGenerationDurationMillis = durationMillis;
+    if (bundleSizeBytes >= 0) {
+      lastBundleSizeBytes = bundleSizeBytes;
+    }
+    generationDuration.record(durationMillis);
+  }
+
+  void recordUploadSuccess(long durationMillis, long bytes) {
+    uploadsSucceeded.incrementAndGet();
+    recordUpload(durationMillis, bytes);
+  }
+
+  void recordUploadFailure(long durationMillis, long bytes, int status) {
+    uploadsFailed.incrementAndGet();
+    recordFailure(status);
+    recordUpload(durationMillis, bytes);
+  }
+
+  /**
+   * Records a run that was cancelled, by an administrator or because it exceeded its deadline. Cancelled runs are
+   * not counted as failures.
+   */
+  public void recordCancellation() {
+    uploadsCancelled.incrementAndGet();
+  }
+
+  private void recordUpload(long durationMillis, long bytes) {
+    bytesSent.addAndGet(bytes);
+    lastUploadDurationMillis = durationMillis;
+    lastUploadBytesPerSecond = durationMillis > 0 ? bytes * 1000 / durationMillis : bytes;
+    uploadDuration.record(durationMillis);
+  }
+
+  void recordHealthCheck(long durationMillis, int status) {
+    healthCheckLatency.record(durationMillis);
+    if (status == 200) {
+      healthChecksSucceeded.incrementAndGet();
+    } else {
+      healthChecksFailed.incrementAndGet();
+      recordFailure(status);
+    }
+  }
+
+  /**
+   * @param status the HTTP status of the failed call, or {@code 0} if no response was received.
+   */
+  void recordFailure(int status) {
+    String key = status > 0 ? Integer.toString(status) : CONNECTION_FAILURE;
+    failuresByStatus.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+  }
+
+  @Override
+  public long getUploadsSucceeded() {
+    return uploadsSucceeded.get();
+  }
+
+  @Override
+  public long getUploadsFailed() {
+    return uploadsFailed.get();
+  }
+
+  @Override
+  public long getUploadsCancelled() {
+    return uploadsCancelled.get();
+  }
+
+  @Override
+  public long getHealthChecksSucceeded() {
+    return healthChecksSucceeded.get();
+  }
+
+  @Override
+  public long getHealthChecksFailed() {
+    return healthChecksFailed.get();
+  }
+
+  @Override
+  public Map<String, Long> getFailuresByStatus() {
+    Map<String, Long> failures = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> e : failuresByStatus.entrySet()) {
+      failures.put(e.getKey(), e.getValue().get());
+    }
+    return failures;
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  @Override
+  public long getLastBundleSizeBytes() {
+    return lastBundleSizeBytes;
+  }
+
+  @Override
+  public long getLastGenerationDurationMillis() {
+    return lastGenerationDurationMillis;
+  }
+
+  @Override
+  public long getLastUploadDurationMillis() {
+    return lastUploadDurationMillis;
+  }
+
+  @Override
+  public long getLastUploadBytesPerSecond() {
+    return lastUploadBytesPerSecond;
+  }
+
+  @Override
+  public long getGenerationDurationP50Millis() {
+    return generationDuration.percentile(0.50);
+  }
+
+  @Override
+  public long getGenerationDurationP95Millis() {
+    return generationDuration.percentile(0.95);
+  }
+
+  @Override
+  public long getGenerationDurationMaxMillis() {
+    return generationDuration.max();
+  }
+
+  @Override
+  public long getUploadDurationP50Millis() {
+    return uploadDuration.percentile(0.50);
+  }
+
+  @Override
+  public long getUploadDurationP95Millis() {
+    return uploadDuration.percentile(0.95);
+  }
+
+  @Override
+  public long getUploadDurationMaxMillis() {
+    return uploadDuration.max();
+  }
+
+  @Override
+  public long getHealthCheckLatencyP50Millis() {
+    return healthCheckLatency.percentile(0.50);
+  }
+
+  @Override
+  public long getHealthCheckLatencyP95Millis() {
+    return healthCheckLatency.percentile(0.95);
+  }
+
+  @Override
+  public long getHealthCheckLatencyMaxMillis() {
+    return healthCheckLatency.max();
+  }
+
+  @Override
+  public long getConnectionsOpened() {
+    return ConnectionManager.get().getOpened();
+  }
+
+  @Override
+  public long getConnectionsReleased() {
+    return ConnectionManager.get().getReleased();
+  }
+
+  @Override
+  public long getConnectionsDiscarded() {
+    return ConnectionManager.get().getDiscarded();
+  }
+
+  @Override
+  public long getEstimatedBandwidthBytesPerSecond() {
+    return BandwidthEstimator.get().getBytesPerSecond();
+  }
+
+  /**
+   * @return all the metrics, in the format served by the management page.
+   */
+  public JSONObject toJSON() {
+    JSONObject counters = new JSONObject()
+        .element("uploadsSucceeded", getUploadsSucceeded())
+        .element("uploadsFailed", getUploadsFailed())
+        .element("uploadsCancelled", getUploadsCancelled())
+        .element("healthChecksSucceeded", getHealthChecksSucceeded())
+        .element("healthChecksFailed", getHealthChecksFailed())
+        .element("bytesSent", getBytesSent())
+        .element("failuresByStatus", getFailuresByStatus());
+    JSONObject gauges = new JSONObject()
+        .element("lastBundleSizeBytes", getLastBundleSizeBytes())
+        .element("lastGenerationDurationMillis", getLastGenerationDurationMillis())
+        .element("lastUploadDurationMillis", getLastUploadDurationMillis())
+        .element("lastUploadBytesPerSecond", getLastUploadBytesPerSecond());
+    JSONObject histograms = new JSONObject()
+        .element("generationDurationMillis", generationDuration.toJSON())
+        .element("uploadDurationMillis", uploadDuration.toJSON())
+        .element("healthCheckLatencyMillis", healthCheckLatency.toJSON());
+    return new JSONObject()
+        .element("counters", counters)
+        .element("gauges", gauges)
+        .element("histograms", histograms)
+        .element("connections", ConnectionManager.get().toJSON())
+        .element("bandwidth", BandwidthEstimator.get().toJSON());
+  }
+
+  /**
+   * A latency histogram with fixed, roughly exponential buckets from 10 milliseconds to an hour.
+   * Percentiles are reported as the upper bound of the bucket they fall in.
+   */
+  static final class Histogram {
+    private static final long[] BOUNDS = {
+        10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000, 900000, 1800000, 3600000
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long millis) {
+      int i = 0;
+      while (i < BOUNDS.length && millis > BOUNDS[i]) {
+        i++;
+      }
+      buckets.incrementAndGet(i);
+      count.incrementAndGet();
+      sum.addAndGet(millis);
+      max.accumulateAndGet(millis, Math::max);
+    }
+
+    long percentile(double p) {
+      long total = count.get();
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(p * total);
+      long seen = 0;
+      for (int i = 0; i < BOUNDS.length; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) {
+          return Math.min(BOUNDS[i], max.get());
+        }
+      }
+      return max.get();
+    }
+
+    long max() {
+      return max.get();
+    }
+
+    JSONObject toJSON() {
+      JSONObject bucketCounts = new JSONObject();
+      for (int i = 0; i < BOUNDS.length; i++) {
+        bucketCounts.element("le_" + BOUNDS[i], buckets.get(i));
+      }
+      bucketCounts.element("le_inf", buckets.get(BOUNDS.length));
+      return new JSONObject()
+          .element("count", count.get())
+          .element("sum", sum.get())
+          .element("max", max())
+          .element("p50", percentile(0.50))
+          .element("p95", percentile(0.95))
+          .element("p99", percentile(0.99))
+          .element("buckets", bucketCounts);
+    }
+  }
+}
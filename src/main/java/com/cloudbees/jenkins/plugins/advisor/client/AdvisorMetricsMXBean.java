@@ -0,0 +1,66 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link AdvisorMetrics}, registered as {@value AdvisorMetrics#OBJECT_NAME}.
+ */
+public interface AdvisorMetricsMXBean {
+
+  long getUploadsSucceeded();
+
+  long getUploadsFailed();
+
+  long getUploadsCancelled();
+
+  long getHealthChecksSucceeded();
+
+  long getHealthChecksFailed();
+
+  /**
+   * @return the number of failed calls by HTTP status, or {@code "connection"} when no response was received.
+   */
+  Map<String, Long> getFailuresByStatus();
+
+  long getBytesSent();
+
+  long getLastBundleSizeBytes();
+
+  long getLastGenerationDurationMillis();
+
+  long getLastUploadDurationMillis();
+
+  long getLastUploadBytesPerSecond();
+
+  long getGenerationDurationP50Millis();
+
+  long getGenerationDurationP95Millis();
+
+  long getGenerationDurationMaxMillis();
+
+  long getUploadDurationP50Millis();
+
+  long getUploadDurationP95Millis();
+
+  long getUploadDurationMaxMillis();
+
+  long getHealthCheckLatencyP50Millis();
+
+  long getHealthCheckLatencyP95Millis();
+
+  long getHealthCheckLatencyMaxMillis();
+
+  long getConnectionsOpened();
+
+  /**
+   * @return the number of connections handed back to the JDK keep-alive cache for reuse.
+   */
+  long getConnectionsReleased();
+
+  long getConnectionsDiscarded();
+
+  /**
+   * @return the bandwidth to the service estimated from the past uploads, which sets their timeouts.
+   */
+  long getEstimatedBandwidthBytesPerSecond();
+}
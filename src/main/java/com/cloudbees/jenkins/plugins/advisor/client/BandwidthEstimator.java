@@ -0,0 +1,108 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import net.sf.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the bandwidth to the Advisor service from the throughput of the past uploads, as an exponentially weighted
+ * moving average, and derives the time an upload should take from it.
+ *
+ * <p>Until an upload succeeded, the estimate is {@link AdvisorClientConfig#uploadDefaultBandwidthKilobytesPerSecond()}.
+ * The expected time of a transfer is multiplied by {@link AdvisorClientConfig#uploadTimeoutSafetyFactor()}, so that a
+ * slower upload is only given up on once it is clearly not going to complete.</p>
+ */
+public final class BandwidthEstimator {
+
+  /**
+   * Weight of the last upload in the estimate.
+   */
+  static final double SMOOTHING = 0.3;
+
+  /**
+   * Uploads smaller than this mostly measure the latency of the service, not the bandwidth.
+   */
+  static final long MIN_SAMPLE_BYTES = 64 * 1024;
+
+  /**
+   * Shortest timeout given to an upload, however small.
+   */
+  static final long MIN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private static final BandwidthEstimator INSTANCE = new BandwidthEstimator();
+
+  private double bytesPerSecond;
+  private long samples;
+
+  BandwidthEstimator() {
+  }
+
+  public static BandwidthEstimator get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records the throughput of a successful upload.
+   *
+   * @param bytes          the bytes sent by the upload.
+   * @param durationMillis the time it took, including the response.
+   */
+  public synchronized void record(long bytes, long durationMillis) {
+    if (bytes < MIN_SAMPLE_BYTES || durationMillis < 0) {
+      return;
+    }
+    double measured = bytes * 1000.0 / Math.max(1, durationMillis);
+    bytesPerSecond = samples == 0 ? measured : SMOOTHING * measured + (1 - SMOOTHING) * bytesPerSecond;
+    samples++;
+  }
+
+  /**
+   * @return the estimated bandwidth, or the configured default if no upload was measured yet.
+   */
+  public synchronized long getBytesPerSecond() {
+    return samples > 0 ? Math.max(1, (long) bytesPerSecond)
+        : Math.max(1, AdvisorClientConfig.uploadDefaultBandwidthKilobytesPerSecond() * 1024L);
+  }
+
+  /**
+   * @return the number of uploads the estimate is made of.
+   */
+  public synchronized long getSamples() {
+    return samples;
+  }
+
+  /**
+   * @param bytes the size of a transfer.
+   * @return the time given to the transfer at the estimated bandwidth, safety factor included. {@code 0} if adaptive
+   * timeouts are disabled.
+   */
+  public long transferMillis(long bytes) {
+    int factor = AdvisorClientConfig.uploadTimeoutSafetyFactor();
+    if (factor <= 0 || bytes <= 0) {
+      return 0;
+    }
+    double expected = bytes * 1000.0 / getBytesPerSecond();
+    return (long) Math.min(Long.MAX_VALUE / 2, Math.ceil(expected * factor));
+  }
+
+  /**
+   * @param bytes the size of the bundle.
+   * @return the time given to the upload of the bundle, at least {@link #MIN_TIMEOUT_MILLIS}. {@code 0} if adaptive
+   * timeouts are disabled.
+   */
+  public long uploadTimeoutMillis(long bytes) {
+    if (AdvisorClientConfig.uploadTimeoutSafetyFactor() <= 0) {
+      return 0;
+    }
+    return Math.max(MIN_TIMEOUT_MILLIS, transferMillis(bytes));
+  }
+
+  /**
+   * @return the estimate, in the format served by the management page.
+   */
+  public JSONObject toJSON() {
+    return new JSONObject()
+        .element("bytesPerSecond", getBytesPerSecond())
+        .element("samples", getSamples());
+  }
+}
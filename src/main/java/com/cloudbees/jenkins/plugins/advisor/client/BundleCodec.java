@@ -0,0 +1,158 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encoding applied to the whole bundle before it is uploaded, advertised to the service with the
+ * {@value #CODEC_HEADER} header.
+ *
+ * <p>{@code identity} sends the bundle as is. {@code deflate} compresses it as a zlib stream at the configured level,
+ * optionally primed with a preset dictionary kept on the controller, typically trained offline on earlier bundles.
+ * The dictionary must also be known to the service, which finds it through the Adler-32 checksum sent in the
+ * {@value #DICTIONARY_HEADER} header and embedded in the zlib header.</p>
+ */
+public final class BundleCodec {
+
+  private static final Logger LOG = Logger.getLogger(BundleCodec.class.getName());
+
+  static final String IDENTITY = "identity";
+  static final String DEFLATE = "deflate";
+
+  static final String CODEC_HEADER = "X-ADVISOR-BUNDLE-CODEC";
+  static final String DICTIONARY_HEADER = "X-ADVISOR-BUNDLE-DICTIONARY";
+
+  /**
+   * Deflate only looks back 32 KiB, so a longer dictionary is truncated to its end.
+   */
+  static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final BundleCodec IDENTITY_CODEC = new BundleCodec(IDENTITY, Deflater.NO_COMPRESSION, null);
+
+  private final String name;
+  private final int level;
+  private final byte[] dictionary;
+
+  BundleCodec(String name, int level, @CheckForNull byte[] dictionary) {
+    this.name = name;
+    this.level = level;
+    this.dictionary = dictionary;
+  }
+
+  /**
+   * @return the codec uploading the bundle as is.
+   */
+  public static BundleCodec identity() {
+    return IDENTITY_CODEC;
+  }
+
+  /**
+   * @return the codec configured in {@link AdvisorClientConfig}, or {@code identity} if the configuration is invalid.
+   */
+  public static BundleCodec fromConfig() {
+    String name = AdvisorClientConfig.bundleCodec().toLowerCase(Locale.ENGLISH);
+    if (IDENTITY.equals(name)) {
+      return IDENTITY_CODEC;
+    }
+    if (!DEFLATE.equals(name)) {
+      LOG.warning(String.format("Unknown bundle codec [%s]. Bundles are uploaded without encoding.", name));
+      return IDENTITY_CODEC;
+    }
+    int level = AdvisorClientConfig.bundleCodecLevel();
+    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      LOG.warning(String.format("Invalid bundle codec level [%d]. Using the default level.", level));
+      level = Deflater.DEFAULT_COMPRESSION;
+    }
+    byte[] dictionary = null;
+    String dictionaryPath = AdvisorClientConfig.bundleCodecDictionary();
+    if (dictionaryPath != null) {
+      try {
+        dictionary = readDictionary(new File(dictionaryPath));
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to read the bundle codec dictionary " + dictionaryPath
+            + ". Bundles are compressed without a dictionary.", e);
+      }
+    }
+    return new BundleCodec(DEFLATE, level, dictionary);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return {@code true} if the bundle is uploaded as is.
+   */
+  public boolean isIdentity() {
+    return IDENTITY.equals(name);
+  }
+
+  /**
+   * @return the Adler-32 checksum of the preset dictionary in hexadecimal, or {@code null} if none is used.
+   */
+  @CheckForNull
+  public String getDictionaryId() {
+    if (dictionary == null) {
+      return null;
+    }
+    Adler32 adler = new Adler32();
+    adler.update(dictionary, 0, dictionary.length);
+    return String.format("%08x", adler.getValue());
+  }
+
+  /**
+   * Adds the headers advertising this codec to the upload request.
+   */
+  void addHeaders(MultipartConnection multipart) {
+    multipart.addHeader(CODEC_HEADER, name);
+    String dictionaryId = getDictionaryId();
+    if (dictionaryId != null) {
+      multipart.addHeader(DICTIONARY_HEADER, dictionaryId);
+    }
+  }
+
+  /**
+   * Wraps a payload so that its output is encoded by this codec.
+   *
+   * @param payload the payload to encode.
+   * @return the encoding payload, or {@code payload} itself for {@code identity}.
+   */
+  public PayloadWriter encode(PayloadWriter payload) {
+    if (isIdentity()) {
+      return payload;
+    }
+    return out -> {
+      Deflater deflater = new Deflater(level);
+      try {
+        if (dictionary != null) {
+          deflater.setDictionary(dictionary);
+        }
+        DeflaterOutputStream encoded = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+        payload.writeTo(encoded);
+        encoded.finish();
+      } finally {
+        deflater.end();
+      }
+    };
+  }
+
+  private static byte[] readDictionary(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      long length = raf.length();
+      byte[] dictionary = new byte[(int) Math.min(length, MAX_DICTIONARY_SIZE)];
+      raf.seek(length - dictionary.length);
+      raf.readFully(dictionary);
+      return dictionary.length > 0 ? dictionary : null;
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import javax.annotation.CheckForNull;
+import java.net.HttpURLConnection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling the Advisor service once it failed {@link AdvisorClientConfig#circuitBreakerFailureThreshold()} calls
+ * in a row, so that the callers do not wait for the timeouts of a service that is down.
+ *
+ * <p>The health checks, test emails and uploads all count. Once open, the circuit rejects the calls for
+ * {@link AdvisorClientConfig#circuitBreakerOpenMinutes()}. The first call made past that is let through as a probe,
+ * with the circuit half-open: it closes the circuit if it succeeds and opens it again if it fails. Responses that only
+ * reject the request, such as an unknown email, show that the service is up and do not count as failures.</p>
+ *
+ * <p>The threshold and the open time are read from {@link AdvisorClientConfig} each time they are needed, so that a
+ * change of the system properties applies to the next call.</p>
+ */
+public final class CircuitBreaker {
+
+  private static final Logger LOG = Logger.getLogger(CircuitBreaker.class.getName());
+
+  private static final CircuitBreaker INSTANCE = new CircuitBreaker(AdvisorClientConfig::circuitBreakerFailureThreshold,
+      () -> TimeUnit.MINUTES.toMillis(AdvisorClientConfig.circuitBreakerOpenMinutes()), System::currentTimeMillis);
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final IntSupplier failureThreshold;
+  private final LongSupplier openMillis;
+  private final LongSupplier clock;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+  private long nextProbe;
+  private long lastSuccess;
+  private String lastFailure;
+
+  /**
+   * @param failureThreshold the consecutive failures opening the circuit, {@code 0} to never open it.
+   * @param openMillis       the time the circuit stays open before a probe is let through.
+   * @param clock            the current time in milliseconds.
+   */
+  CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+    this(() -> failureThreshold, () -> openMillis, clock);
+  }
+
+  private CircuitBreaker(IntSupplier failureThreshold, LongSupplier openMillis, LongSupplier clock) {
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  public static CircuitBreaker get() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param status the HTTP status of a response, or {@code 0} if no response was received.
+   * @return {@code true} if the status shows that the service is unavailable rather than rejecting the request.
+   */
+  static boolean isServiceFailure(int status) {
+    switch (status) {
+      case 0:
+      case HttpURLConnection.HTTP_CLIENT_TIMEOUT:
+      case 429:
+      case HttpURLConnection.HTTP_INTERNAL_ERROR:
+      case HttpURLConnection.HTTP_BAD_GATEWAY:
+      case HttpURLConnection.HTTP_UNAVAILABLE:
+      case HttpURLConnection.HTTP_GATEWAY_TIMEOUT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Asks for the permission to call the service. When the probe is due this moves the circuit to half-open, and the
+   * caller must then report the outcome of its call.
+   *
+   * @return {@code true} if the call can be made.
+   */
+  public synchronized boolean allowRequest() {
+    if (!isCallPermitted()) {
+      return false;
+    }
+    if (state != State.CLOSED) {
+      // the probe, the other calls are rejected until it completes or is overdue
+      state = State.HALF_OPEN;
+      nextProbe = clock.getAsLong() + openMillis.getAsLong();
+      LOG.info("Probing the CloudBees Jenkins Advisor service");
+    }
+    return true;
+  }
+
+  /**
+   * Same as {@link #allowRequest()} without moving the circuit to half-open, for the callers that only decide whether
+   * to prepare a call.
+   *
+   * @return {@code true} if a call made now would be let through.
+   */
+  public synchronized boolean isCallPermitted() {
+    return failureThreshold.getAsInt() <= 0 || state == State.CLOSED || clock.getAsLong() >= nextProbe;
+  }
+
+  /**
+   * Records the outcome of a call from the status of its response.
+   *
+   * @param status the HTTP status of the response, or {@code 0} if no response was received.
+   */
+  public void record(int status) {
+    if (isServiceFailure(status)) {
+      recordFailure(status > 0 ? "Response code " + status : "No response");
+    } else {
+      recordSuccess();
+    }
+  }
+
+  public synchronized void recordSuccess() {
+    if (state != State.CLOSED) {
+      LOG.info("The CloudBees Jenkins Advisor service is available again, closing the circuit");
+    }
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    lastFailure = null;
+    lastSuccess = clock.getAsLong();
+  }
+
+  public synchronized void recordFailure(String reason) {
+    consecutiveFailures++;
+    lastFailure = reason;
+    int threshold = failureThreshold.getAsInt();
+    if (threshold <= 0 || (state == State.CLOSED && consecutiveFailures < threshold)) {
+      return;
+    }
+    long now = clock.getAsLong();
+    if (state == State.CLOSED) {
+      openedAt = now;
+    }
+    state = State.OPEN;
+    nextProbe = now + openMillis.getAsLong();
+    LOG.warning(String.format("The CloudBees Jenkins Advisor service failed %d calls in a row (%s). "
+        + "Calls are suspended until %s.", consecutiveFailures, reason, new Date(nextProbe)));
+  }
+
+  /**
+   * Closes the circuit and forgets the past calls, e.g. once the service it guards has changed.
+   */
+  public synchronized void reset() {
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    openedAt = 0;
+    nextProbe = 0;
+    lastSuccess = 0;
+    lastFailure = null;
+  }
+
+  /**
+   * Lets the next call through as a probe, e.g. when an administrator asks for an upload.
+   */
+  public synchronized void probeNow() {
+    if (state != State.CLOSED) {
+      nextProbe = clock.getAsLong();
+    }
+  }
+
+  /**
+   * @param maxAgeMillis how recent the last call must be.
+   * @return {@code true} if the last call succeeded less than {@code maxAgeMillis} ago.
+   */
+  public synchronized boolean isRecentlyAvailable(long maxAgeMillis) {
+    return state == State.CLOSED && consecutiveFailures == 0 && lastSuccess > 0
+        && clock.getAsLong() - lastSuccess < maxAgeMillis;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public synchronized boolean isClosed() {
+    return state == State.CLOSED;
+  }
+
+  public synchronized int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  /**
+   * @return the last failure recorded since the circuit was closed, or {@code null} if there was none.
+   */
+  @CheckForNull
+  public synchronized String getLastFailure() {
+    return lastFailure;
+  }
+
+  /**
+   * @return when the circuit opened, or {@code null} if it is closed.
+   */
+  @CheckForNull
+  public synchronized Date getOpenedAt() {
+    return state == State.CLOSED ? null : new Date(openedAt);
+  }
+
+  /**
+   * @return when the next call is let through as a probe, or {@code null} if the circuit is closed.
+   */
+  @CheckForNull
+  public synchronized Date getNextProbe() {
+    return state == State.CLOSED ? null : new Date(nextProbe);
+  }
+
+  /**
+   * @return the time until the next probe, {@code 0} if it is due or the circuit is closed.
+   */
+  public synchronized long getMillisToNextProbe() {
+    return state == State.CLOSED ? 0 : Math.max(0, nextProbe - clock.getAsLong());
+  }
+}
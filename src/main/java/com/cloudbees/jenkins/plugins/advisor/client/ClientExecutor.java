@@ -0,0 +1,115 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads making the calls to the Advisor service on behalf of the asynchronous methods of
+ * {@link AdvisorClient}, so that the callers do not hold their own thread for the round trip. A pool of
+ * {@link #THREADS} threads makes the calls and a single thread enforces their deadlines, and watches the progress of
+ * the uploads. All of them exit when idle.
+ */
+public final class ClientExecutor {
+
+  /**
+   * Maximum number of calls in progress at once. Further calls wait for a thread.
+   */
+  static final int THREADS = Math.max(1, Integer.getInteger(ClientExecutor.class.getName() + ".threads", 4));
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static final ThreadPoolExecutor IO = newPool();
+  private static final ScheduledThreadPoolExecutor DEADLINES = newScheduler();
+
+  private ClientExecutor() {
+    throw new UnsupportedOperationException("Cannot instantiate utility class");
+  }
+
+  /**
+   * Runs a call on the I/O threads.
+   *
+   * @param call     the call.
+   * @param onCancel aborts the call, run when the returned future is cancelled or misses its deadline. The thread of
+   *                 the call is interrupted as well.
+   * @return the outcome of the call.
+   */
+  static <T> CompletableFuture<T> supply(Callable<T> call, Runnable onCancel) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Future<?> task = IO.submit(() -> {
+      try {
+        result.complete(call.call());
+      } catch (Throwable t) {
+        result.completeExceptionally(t);
+      }
+    });
+    result.whenComplete((value, error) -> {
+      if (error instanceof CancellationException || error instanceof TimeoutException) {
+        task.cancel(true);
+        onCancel.run();
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Fails a future with a {@link TimeoutException} if it is not complete within the given time. A call started by
+   * {@link AdvisorClient} is then aborted.
+   *
+   * @return the same future.
+   */
+  public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+    if (future.isDone()) {
+      return future;
+    }
+    ScheduledFuture<?> deadline = DEADLINES.schedule(() -> future.completeExceptionally(new TimeoutException(
+        String.format("No answer from the service within %d %s", timeout, unit.toString().toLowerCase()))),
+        timeout, unit);
+    future.whenComplete((value, error) -> deadline.cancel(false));
+    return future;
+  }
+
+  /**
+   * Runs a short check periodically on the thread enforcing the deadlines, e.g. the progress of an upload.
+   *
+   * @return the checks, to be cancelled once they are not needed anymore.
+   */
+  static ScheduledFuture<?> scheduleWithFixedDelay(Runnable check, long period, TimeUnit unit) {
+    return DEADLINES.scheduleWithFixedDelay(check, period, period, unit);
+  }
+
+  private static ThreadPoolExecutor newPool() {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), newThreadFactory("Advisor client I/O"));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static ScheduledThreadPoolExecutor newScheduler() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+        newThreadFactory("Advisor client deadline"));
+    // most calls complete before their deadline
+    scheduler.setRemoveOnCancelPolicy(true);
+    scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    scheduler.allowCoreThreadTimeOut(true);
+    return scheduler;
+  }
+
+  private static ThreadFactory newThreadFactory(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, name + " #" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
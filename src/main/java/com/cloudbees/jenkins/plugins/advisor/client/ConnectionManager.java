@@ -0,0 +1,200 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import hudson.ProxyConfiguration;
+import hudson.URLConnectionDecorator;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens the connections to the Advisor service so that they can be reused across calls, e.g. by the health check and
+ * the upload that follows it.
+ *
+ * <p>The sockets are pooled by the JDK keep-alive cache, which only takes back a connection once its response was read
+ * to the end and closed without {@link HttpURLConnection#disconnect() disconnecting}: {@link #release} does that. A
+ * reused connection skips the TCP and TLS handshakes, and the TLS sessions of new connections are resumed from the
+ * session cache of the default socket factory.</p>
+ *
+ * <p>The proxy selected for each host is cached until the proxy configuration of Jenkins changes, instead of being
+ * resolved on each call. Proxies requiring authentication still go through {@link ProxyConfiguration#open(URL)},
+ * which sets up the credentials.</p>
+ */
+public final class ConnectionManager {
+
+  private static final ConnectionManager INSTANCE = new ConnectionManager();
+
+  private final Map<String, Proxy> proxies = new ConcurrentHashMap<>();
+  private volatile ProxyConfiguration proxyConfiguration;
+
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong released = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong proxyLookups = new AtomicLong();
+  private final AtomicLong proxyCacheHits = new AtomicLong();
+
+  ConnectionManager() {
+  }
+
+  public static ConnectionManager get() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param spec the URL to connect to.
+   * @return a connection, through the proxy configured for its host, to be passed to {@link #release} or
+   * {@link #discard} once done.
+   * @throws IOException if the connection cannot be opened.
+   */
+  public HttpURLConnection open(String spec) throws IOException {
+    URL url = new URL(spec);
+    Jenkins jenkins = Jenkins.getInstanceOrNull();
+    ProxyConfiguration configuration = jenkins != null ? jenkins.proxy : null;
+    HttpURLConnection con;
+    if (configuration != null && configuration.getUserName() != null) {
+      con = (HttpURLConnection) ProxyConfiguration.open(url);
+    } else {
+      con = (HttpURLConnection) url.openConnection(proxyFor(configuration, url.getHost()));
+      if (jenkins != null) {
+        for (URLConnectionDecorator decorator : URLConnectionDecorator.all()) {
+          decorator.decorate(con);
+        }
+      }
+    }
+    opened.incrementAndGet();
+    return con;
+  }
+
+  Proxy proxyFor(ProxyConfiguration configuration, String host) {
+    if (configuration == null) {
+      return Proxy.NO_PROXY;
+    }
+    if (configuration != proxyConfiguration) {
+      // saving the proxy configuration replaces it
+      proxies.clear();
+      proxyConfiguration = configuration;
+    }
+    Proxy proxy = proxies.get(host);
+    if (proxy != null) {
+      proxyCacheHits.incrementAndGet();
+      return proxy;
+    }
+    proxyLookups.incrementAndGet();
+    proxy = configuration.createProxy(host);
+    proxies.put(host, proxy);
+    return proxy;
+  }
+
+  /**
+   * Reads what is left of the response and closes it, so that the connection goes back to the keep-alive cache. The
+   * connection must have received a response.
+   */
+  public void release(HttpURLConnection con) {
+    try {
+      readResponse(con, null);
+    } catch (IOException e) {
+      // the connection is broken, the JDK did not keep it
+    }
+  }
+
+  /**
+   * Reads the response to the end, including the body of an error response, and releases the connection.
+   *
+   * @param charset the charset of the body, or {@code null} to skip it.
+   * @return the body, or an empty string if it was skipped.
+   * @throws IOException if the response cannot be read, in which case the connection is discarded.
+   */
+  public String readResponse(HttpURLConnection con, Charset charset) throws IOException {
+    StringBuilder body = new StringBuilder();
+    try {
+      InputStream in = con.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+          ? con.getErrorStream() : con.getInputStream();
+      if (in != null) {
+        try (Reader reader = new InputStreamReader(in, charset != null ? charset : StandardCharsets.ISO_8859_1)) {
+          char[] buffer = new char[8192];
+          int n;
+          while ((n = reader.read(buffer)) != -1) {
+            if (charset != null) {
+              body.append(buffer, 0, n);
+            }
+          }
+        }
+      }
+      released.incrementAndGet();
+      return body.toString();
+    } catch (IOException e) {
+      discard(con);
+      throw e;
+    }
+  }
+
+  /**
+   * Closes the connection without reusing it, e.g. when its request was not completed.
+   */
+  public void discard(HttpURLConnection con) {
+    con.disconnect();
+    discarded.incrementAndGet();
+  }
+
+  /**
+   * @return the number of connections opened.
+   */
+  public long getOpened() {
+    return opened.get();
+  }
+
+  /**
+   * @return the number of connections handed back to the keep-alive cache.
+   */
+  public long getReleased() {
+    return released.get();
+  }
+
+  /**
+   * @return the number of connections closed without being reused.
+   */
+  public long getDiscarded() {
+    return discarded.get();
+  }
+
+  public long getProxyLookups() {
+    return proxyLookups.get();
+  }
+
+  public long getProxyCacheHits() {
+    return proxyCacheHits.get();
+  }
+
+  /**
+   * @return the number of idle connections the JDK keeps per destination, see the {@code http.maxConnections} system
+   * property.
+   */
+  public int getMaxIdleConnections() {
+    return Boolean.parseBoolean(System.getProperty("http.keepAlive", "true"))
+        ? Integer.getInteger("http.maxConnections", 5) : 0;
+  }
+
+  /**
+   * @return the statistics of the connections, in the format served by the management page.
+   */
+  public JSONObject toJSON() {
+    return new JSONObject()
+        .element("opened", getOpened())
+        .element("released", getReleased())
+        .element("discarded", getDiscarded())
+        .element("proxyLookups", getProxyLookups())
+        .element("proxyCacheHits", getProxyCacheHits())
+        .element("maxIdleConnections", getMaxIdleConnections());
+  }
+}
@@ -0,0 +1,37 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import java.io.IOException;
+
+/**
+ * A call to the Advisor service that got an unexpected HTTP status, so that the caller can tell a failure worth
+ * retrying from one that would fail the same way again.
+ */
+public final class HttpStatusException extends IOException {
+
+  private final int status;
+
+  HttpStatusException(int status, String message) {
+    super(message);
+    this.status = status;
+  }
+
+  /**
+   * @return the HTTP status of the response.
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @param failure a failed call, which may wrap an {@link HttpStatusException}.
+   * @return the HTTP status the call failed with, or {@code 0} if no response was received.
+   */
+  public static int statusOf(Throwable failure) {
+    for (Throwable t = failure; t != null; t = t.getCause()) {
+      if (t instanceof HttpStatusException) {
+        return ((HttpStatusException) t).getStatus();
+      }
+    }
+    return 0;
+  }
+}
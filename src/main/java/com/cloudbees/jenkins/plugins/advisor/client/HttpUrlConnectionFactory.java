@@ -1,10 +1,7 @@
 package com.cloudbees.jenkins.plugins.advisor.client;
 
-import hudson.ProxyConfiguration;
-
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 
 public final class HttpUrlConnectionFactory {
 
@@ -12,11 +9,43 @@ public final class HttpUrlConnectionFactory {
     throw new UnsupportedOperationException("Cannot instantiate class");
   }
 
-  public static HttpURLConnection openGetConnection(String spec) throws IOException {
-    HttpURLConnection con = (HttpURLConnection) ProxyConfiguration.open(new URL(spec));
-    con.setRequestMethod("GET");
-    con.setConnectTimeout(AdvisorClientConfig.insightsUploadIdleTimeoutMilliseconds());
-    con.setReadTimeout(AdvisorClientConfig.insightsUploadTimeoutMilliseconds());
+  /**
+   * @param spec     the URL to connect to.
+   * @param timeouts the timeouts of the call.
+   * @return the connection.
+   * @throws IOException if the connection cannot be opened, or the deadline of the call passed.
+   */
+  public static HttpURLConnection openGetConnection(String spec, Timeouts timeouts) throws IOException {
+    return openConnection(spec, "GET", timeouts);
+  }
+
+  /**
+   * Opens a connection sending a request body of a known size.
+   *
+   * @param spec          the URL to connect to.
+   * @param method        the HTTP method, {@code PUT} or {@code POST}.
+   * @param contentLength the exact size of the request body.
+   * @param timeouts      the timeouts of the call.
+   * @return the connection, ready for its output stream to be written.
+   * @throws IOException if the connection cannot be opened, or the deadline of the call passed.
+   */
+  public static HttpURLConnection openOutputConnection(String spec, String method, long contentLength,
+                                                       Timeouts timeouts) throws IOException {
+    HttpURLConnection con = openConnection(spec, method, timeouts);
+    con.setUseCaches(false);
+    con.setDoOutput(true);
+    con.setFixedLengthStreamingMode(contentLength);
+
+    return con;
+  }
+
+  private static HttpURLConnection openConnection(String spec, String method, Timeouts timeouts) throws IOException {
+    // fails before opening anything if the deadline passed
+    int connectTimeout = timeouts.getConnectMillis();
+    HttpURLConnection con = ConnectionManager.get().open(spec);
+    con.setRequestMethod(method);
+    con.setConnectTimeout(connectTimeout);
+    con.setReadTimeout(timeouts.getReadMillis());
     con.setInstanceFollowRedirects(true);
 
     return con;
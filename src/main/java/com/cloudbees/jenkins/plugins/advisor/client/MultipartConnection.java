@@ -1,49 +1,115 @@
 package com.cloudbees.jenkins.plugins.advisor.client;
 
 import com.cloudbees.jenkins.plugins.advisor.client.model.ClientResponse;
-import hudson.ProxyConfiguration;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 
 public class MultipartConnection {
 
   private static final String LINE_FEED = "\r\n";
 
+  /**
+   * Smallest transfer buffer. A buffer of {@code 0} bytes would never read anything, and the JDK ignores chunk sizes
+   * that do not fit a chunk header.
+   */
+  static final int MIN_TRANSFER_BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Size of the buffer used to copy a file into the request body. It is also used as the chunk size when the
+   * length of the request body is not known upfront, so that chunks are not split into the JDK default of 4 KiB.
+   */
+  static final int TRANSFER_BUFFER_SIZE = Math.max(MIN_TRANSFER_BUFFER_SIZE, Integer.getInteger(
+      MultipartConnection.class.getName() + ".transferBufferSize", 256 * 1024));
+
+  /**
+   * The transfer buffer of each uploading thread. Uploads run on a small pool of threads, so the buffer is reused
+   * across uploads instead of being allocated for each file.
+   */
+  private static final ThreadLocal<byte[]> TRANSFER_BUFFERS = new ThreadLocal<>();
+
+  /**
+   * Upper bound of the buffer between a {@link PayloadWriter} and the connection.
+   */
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
   private final String boundary;
   private final HttpURLConnection httpConn;
-  private OutputStream outputStream;
+  private CountingOutputStream outputStream;
   private PrintWriter writer;
   private final Charset charset;
+  private int transferBufferSize = TRANSFER_BUFFER_SIZE;
+  private UploadListener listener = UploadListener.NONE;
 
   public MultipartConnection(final String requestURL, final Charset charset) throws IOException {
+    this(requestURL, charset, Timeouts.upload());
+  }
+
+  /**
+   * @param timeouts the timeouts of the upload.
+   * @throws IOException if the connection cannot be opened, or the deadline of the upload passed.
+   */
+  public MultipartConnection(final String requestURL, final Charset charset, final Timeouts timeouts) throws IOException {
     boundary = "===" + System.currentTimeMillis() + "===";
 
-    httpConn = (HttpURLConnection) ProxyConfiguration.open(new URL(requestURL));
+    int connectTimeout = timeouts.getConnectMillis();
+    httpConn = ConnectionManager.get().open(requestURL);
     httpConn.setUseCaches(false);
     httpConn.setDoOutput(true); // indicates POST method
     httpConn.setDoInput(true);
     httpConn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-    httpConn.setConnectTimeout(AdvisorClientConfig.insightsUploadIdleTimeoutMilliseconds());
-    httpConn.setReadTimeout(AdvisorClientConfig.insightsUploadTimeoutMilliseconds());
+    httpConn.setConnectTimeout(connectTimeout);
+    httpConn.setReadTimeout(timeouts.getReadMillis());
     httpConn.setInstanceFollowRedirects(true);
 
     this.charset = charset;
   }
 
+  /**
+   * Opens the request body using chunked transfer encoding.
+   * Use this when the size of the parts isn't known before they are written.
+   */
   public void connect() {
+    httpConn.setChunkedStreamingMode(transferBufferSize);
+    openOutputStream();
+  }
+
+  /**
+   * Opens the request body with a fixed {@code Content-Length}, as computed by {@link #getContentLength(String, File)}.
+   * The body is streamed to the server as it is written instead of being buffered in memory by the JDK.
+   *
+   * @param contentLength the exact number of bytes that will be written, or a negative value to fall back to
+   *                      chunked transfer encoding.
+   */
+  public void connect(long contentLength) {
+    if (contentLength < 0) {
+      connect();
+      return;
+    }
+    httpConn.setFixedLengthStreamingMode(contentLength);
+    openOutputStream();
+  }
+
+  private void openOutputStream() {
     try {
-      outputStream = httpConn.getOutputStream();
+      outputStream = new CountingOutputStream(httpConn.getOutputStream()) {
+        @Override
+        protected void afterWrite(int n) {
+          listener.onBytesSent(getByteCount());
+        }
+      };
       writer = new PrintWriter(new OutputStreamWriter(outputStream, charset),
           true);
     } catch (IOException e) {
@@ -51,56 +117,158 @@ public class MultipartConnection {
     }
   }
 
+  /**
+   * @return the number of bytes of the request body written so far.
+   */
+  public long getBytesWritten() {
+    return outputStream != null ? outputStream.getByteCount() : 0L;
+  }
+
+  /**
+   * @param listener notified of the bytes of the request body written so far; must be set before {@link #connect()}.
+   */
+  void setUploadListener(UploadListener listener) {
+    this.listener = listener;
+  }
+
   public void addHeader(String key, String value) {
     httpConn.addRequestProperty(key, value);
   }
 
+  /**
+   * Computes the exact size of a request body made of a single file part, as written by
+   * {@link #addFilePart(String, File)} followed by {@link #finish()}.
+   *
+   * @param fieldName  the name of the form field.
+   * @param uploadFile the file to upload.
+   * @return the size of the request body in bytes, or {@code -1} if the file size cannot be determined.
+   */
+  public long getContentLength(String fieldName, File uploadFile) {
+    return getContentLength(fieldName, uploadFile.getName(), uploadFile);
+  }
+
+  /**
+   * Same as {@link #getContentLength(String, File)}, for a file part uploaded under another name, as written by
+   * {@link #addFilePart(String, String, File)}.
+   */
+  public long getContentLength(String fieldName, String fileName, File uploadFile) {
+    long fileLength = uploadFile.length();
+    if (fileLength <= 0L) {
+      return -1L;
+    }
+    return filePartHeader(fieldName, fileName).getBytes(charset).length
+        + fileLength
+        + LINE_FEED.getBytes(charset).length
+        + closingBoundary().getBytes(charset).length;
+  }
+
   public void addFilePart(String fieldName, File uploadFile)
       throws IOException {
-    String fileName = uploadFile.getName();
-    writer.append("--").append(boundary).append(LINE_FEED);
-    writer.append("Content-Disposition: form-data; name=\"").append(fieldName).append("\"; filename=\"").append(fileName).append("\"")
-        .append(LINE_FEED);
-    writer.append("Content-Type: ").append(URLConnection.guessContentTypeFromName(fileName)).append(LINE_FEED);
-    writer.append("Content-Transfer-Encoding: binary").append(LINE_FEED);
+    addFilePart(fieldName, uploadFile.getName(), uploadFile);
+  }
+
+  /**
+   * @param fileName the name the file is uploaded under, e.g. the original name of a bundle kept under another one.
+   */
+  public void addFilePart(String fieldName, String fileName, File uploadFile)
+      throws IOException {
+    writer.append(filePartHeader(fieldName, fileName));
+    writer.flush();
+
+    try (FileChannel channel = FileChannel.open(uploadFile.toPath(), StandardOpenOption.READ)) {
+      transfer(channel, outputStream);
+      outputStream.flush();
+    }
+
     writer.append(LINE_FEED);
     writer.flush();
+  }
 
-    try (FileInputStream inputStream = new FileInputStream(uploadFile)) {
-      byte[] buffer = new byte[4096];
-      int bytesRead;
-      while ((bytesRead = inputStream.read(buffer)) != -1) {
-        outputStream.write(buffer, 0, bytesRead);
+  /**
+   * Copies a file into the request body.
+   * The connection's stream is not a channel, so {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+   * would fall back to 8 KiB copies. Instead the file is read through its channel, which reuses a cached native
+   * buffer, into a single large heap buffer that is handed to the connection in one write per read. The heap buffer
+   * is kept by the thread for its next upload.
+   */
+  private void transfer(FileChannel channel, OutputStream out) throws IOException {
+    byte[] buffer = TRANSFER_BUFFERS.get();
+    if (buffer == null || buffer.length != transferBufferSize) {
+      buffer = new byte[transferBufferSize];
+      TRANSFER_BUFFERS.set(buffer);
+    }
+    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+    int bytesRead;
+    while ((bytesRead = channel.read(byteBuffer)) != -1) {
+      if (bytesRead > 0) {
+        out.write(buffer, 0, bytesRead);
       }
-      outputStream.flush();
+      byteBuffer.clear();
     }
+  }
+
+  /**
+   * Overrides the size of the copy buffer. Meant for benchmarks comparing buffer sizes.
+   *
+   * @param transferBufferSize the buffer size in bytes, at least {@link #MIN_TRANSFER_BUFFER_SIZE}; must be set before
+   *                           {@link #connect()}.
+   */
+  void setTransferBufferSize(int transferBufferSize) {
+    this.transferBufferSize = Math.max(MIN_TRANSFER_BUFFER_SIZE, transferBufferSize);
+  }
+
+  /**
+   * Adds a part whose content is produced on the fly by the given writer.
+   * The request must have been opened with {@link #connect()} since the size of the part is unknown.
+   *
+   * @param fieldName the name of the form field.
+   * @param fileName  the file name announced for the part.
+   * @param payload   the writer producing the content of the part.
+   * @throws IOException if the content cannot be produced or sent.
+   */
+  public void addStreamPart(String fieldName, String fileName, PayloadWriter payload)
+      throws IOException {
+    writer.append(filePartHeader(fieldName, fileName));
+    writer.flush();
+
+    OutputStream partStream = new BufferedOutputStream(new CloseShieldOutputStream(outputStream), STREAM_BUFFER_SIZE);
+    payload.writeTo(partStream);
+    partStream.flush();
 
     writer.append(LINE_FEED);
     writer.flush();
   }
 
-  public ClientResponse finish() throws IOException {
-    StringBuilder response = new StringBuilder();
+  /**
+   * Drops the connection without completing the request, so that a partially written body is never
+   * accepted by the server.
+   */
+  public void abort() {
+    ConnectionManager.get().discard(httpConn);
+  }
 
-    writer.append(LINE_FEED).flush();
-    writer.append("--").append(boundary).append("--").append(LINE_FEED);
+  /**
+   * Completes the request and reads the response, including the body of an error response. The connection is then
+   * released for reuse.
+   */
+  public ClientResponse finish() throws IOException {
+    writer.append(closingBoundary());
     writer.close();
 
-    // get code
     int status = httpConn.getResponseCode();
+    return new ClientResponse(status, ConnectionManager.get().readResponse(httpConn, charset));
+  }
 
-    // get message
-    BufferedReader reader = new BufferedReader(new InputStreamReader(httpConn.getInputStream(), charset));
-    String line;
-    while ((line = reader.readLine()) != null) {
-      response.append(line);
-    }
-
-    // close connection
-    reader.close();
-    httpConn.disconnect();
+  private String filePartHeader(String fieldName, String fileName) {
+    return "--" + boundary + LINE_FEED
+        + "Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fileName + "\"" + LINE_FEED
+        + "Content-Type: " + URLConnection.guessContentTypeFromName(fileName) + LINE_FEED
+        + "Content-Transfer-Encoding: binary" + LINE_FEED
+        + LINE_FEED;
+  }
 
-    return new ClientResponse(status, response.toString());
+  private String closingBoundary() {
+    return LINE_FEED + "--" + boundary + "--" + LINE_FEED;
   }
 
   private static final class MultipartConnectionException extends RuntimeException {
@@ -0,0 +1,19 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the content of an upload directly into the request body, so that it does not need to be
+ * written to a file first.
+ */
+public interface PayloadWriter {
+
+  /**
+   * Writes the payload.
+   *
+   * @param out the request body. Implementations must not close it.
+   * @throws IOException if the payload cannot be produced or sent.
+   */
+  void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,321 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import com.cloudbees.jenkins.plugins.advisor.client.model.ClientResponse;
+import com.cloudbees.jenkins.plugins.advisor.client.model.ClientUploadRequest;
+import com.cloudbees.jenkins.plugins.advisor.utils.EmailUtil;
+
+import javax.annotation.CheckForNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads a bundle as a sequence of fixed-size chunks, so that a failed upload can be resumed from the last chunk
+ * acknowledged by the server instead of starting over.
+ *
+ * <p>Each chunk is sent with {@code PUT} and a {@code Content-Range} header. Acknowledged offsets are persisted in a
+ * checkpoint file next to the bundle, which survives a controller restart. Once all chunks are acknowledged the
+ * upload is completed with a {@code POST} and the checkpoint is removed.</p>
+ */
+public final class ResumableUpload {
+
+  private static final Logger LOG = Logger.getLogger(ResumableUpload.class.getName());
+
+  public static final String CHECKPOINT_SUFFIX = ".upload";
+
+  private static final String UPLOAD_ID = "uploadId";
+  private static final String LENGTH = "length";
+  private static final String LAST_MODIFIED = "lastModified";
+  private static final String CHUNK_SIZE = "chunkSize";
+  private static final String OFFSET = "offset";
+
+  private final String username;
+  private final ClientUploadRequest request;
+  private final int chunkSize;
+  private UploadListener listener = UploadListener.NONE;
+  private Timeouts timeouts = Timeouts.upload();
+  private volatile HttpURLConnection active;
+  private volatile boolean aborted;
+
+  ResumableUpload(String username, ClientUploadRequest request, int chunkSize) {
+    this.username = username;
+    this.request = request;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * @param listener notified of the offset acknowledged by the server after each chunk.
+   * @return this upload.
+   */
+  ResumableUpload withUploadListener(UploadListener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /**
+   * @param timeouts the timeouts of each request, the upload fails once their deadline passes.
+   * @return this upload.
+   */
+  ResumableUpload withTimeouts(Timeouts timeouts) {
+    this.timeouts = timeouts;
+    return this;
+  }
+
+  /**
+   * Aborts the request in progress, if any, and the upload. The checkpoint is kept, so that the upload can be resumed.
+   */
+  void abort() {
+    aborted = true;
+    HttpURLConnection con = active;
+    if (con != null) {
+      ConnectionManager.get().discard(con);
+    }
+  }
+
+  /**
+   * Lists the bundles of a directory with an upload that was started but not completed.
+   *
+   * @param directory the directory holding the bundles.
+   * @return the bundles to resume, never {@code null}.
+   */
+  public static List<File> findPending(File directory) {
+    List<File> pending = new ArrayList<>();
+    File[] checkpoints = directory.listFiles((dir, name) -> name.endsWith(CHECKPOINT_SUFFIX));
+    if (checkpoints != null) {
+      for (File checkpoint : checkpoints) {
+        String name = checkpoint.getName();
+        File bundle = new File(directory, name.substring(0, name.length() - CHECKPOINT_SUFFIX.length()));
+        if (bundle.isFile()) {
+          pending.add(bundle);
+        } else {
+          deleteCheckpoint(checkpoint);
+        }
+      }
+    }
+    return pending;
+  }
+
+  /**
+   * Forgets the progress of an upload, so that the next attempt starts from the beginning.
+   *
+   * @param bundle the bundle being uploaded.
+   */
+  public static void discard(File bundle) {
+    deleteCheckpoint(checkpointFile(bundle));
+  }
+
+  /**
+   * @param bundle a bundle.
+   * @return {@code true} if an upload of the bundle was started and not completed.
+   */
+  public static boolean isPending(File bundle) {
+    return checkpointFile(bundle).isFile();
+  }
+
+  static File checkpointFile(File bundle) {
+    return new File(bundle.getParentFile(), bundle.getName() + CHECKPOINT_SUFFIX);
+  }
+
+  /**
+   * Uploads the bundle, from the last acknowledged chunk if a previous attempt was interrupted. If the server rejects
+   * a chunk or the completion with a client error, e.g. because it no longer knows the upload, the checkpoint is
+   * deleted and the upload starts over once from the beginning.
+   *
+   * @return the response to the completion, or to the rejected chunk.
+   * @throws IOException if the upload failed. The checkpoint is kept, unless the server rejected the upload.
+   */
+  ClientResponse upload() throws IOException {
+    ClientResponse response = attempt();
+    if (isRejected(response)) {
+      LOG.warning(String.format("The upload of bundle [%s] was rejected with response code %d, starting it over",
+          request.getFile(), response.getCode()));
+      response = attempt();
+    }
+    return response;
+  }
+
+  private ClientResponse attempt() throws IOException {
+    File bundle = request.getFile();
+    File checkpointFile = checkpointFile(bundle);
+    long length = bundle.length();
+
+    Properties checkpoint = loadCheckpoint(checkpointFile, bundle);
+    String uploadId = checkpoint.getProperty(UPLOAD_ID);
+    long offset = Long.parseLong(checkpoint.getProperty(OFFSET));
+    if (offset > 0 && LOG.isLoggable(Level.INFO)) {
+      LOG.info(String.format("Resuming upload [%s] of bundle [%s] at offset %d of %d", uploadId, bundle, offset, length));
+    }
+
+    String chunkURL = AdvisorClientConfig.apiChunkUploadURI(username, request.getInstanceId(), uploadId);
+    listener.onBytesSent(offset);
+    try (FileChannel channel = FileChannel.open(bundle.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+      while (offset < length) {
+        if (aborted || Thread.currentThread().isInterrupted()) {
+          // the checkpoint is kept, the owner of the bundle decides whether to resume or discard it
+          throw new InterruptedIOException("Upload of bundle " + bundle + " was interrupted at offset " + offset);
+        }
+        buffer.clear();
+        int read = 0;
+        while (buffer.hasRemaining() && offset + read < length) {
+          int n = channel.read(buffer, offset + read);
+          if (n < 0) {
+            break;
+          }
+          read += n;
+        }
+        ClientResponse rejected = sendChunk(chunkURL, buffer.array(), read, offset, length);
+        if (rejected != null) {
+          deleteCheckpoint(checkpointFile);
+          return rejected;
+        }
+        offset += read;
+        checkpoint.setProperty(OFFSET, Long.toString(offset));
+        saveCheckpoint(checkpointFile, checkpoint);
+        listener.onBytesSent(offset);
+      }
+    }
+
+    ClientResponse response = complete(uploadId);
+    if (response.getCode() == HttpURLConnection.HTTP_OK || isRejected(response)) {
+      deleteCheckpoint(checkpointFile);
+    }
+    return response;
+  }
+
+  private static boolean isRejected(ClientResponse response) {
+    return response.getCode() / 100 == 4;
+  }
+
+  /**
+   * @return the response if the server rejected the chunk with a client error, {@code null} if it was acknowledged.
+   * @throws IOException if the chunk could not be sent, or a {@link HttpStatusException} if the server failed.
+   */
+  @CheckForNull
+  private ClientResponse sendChunk(String chunkURL, byte[] chunk, int size, long offset, long length) throws IOException {
+    HttpURLConnection con = HttpUrlConnectionFactory.openOutputConnection(chunkURL, "PUT", size, timeouts);
+    active = con;
+    boolean released = false;
+    try {
+      if (aborted) {
+        throw new InterruptedIOException("The upload was aborted");
+      }
+      con.setRequestProperty("Content-Type", "application/octet-stream");
+      con.setRequestProperty("Content-Range", String.format("bytes %d-%d/%d", offset, offset + size - 1, length));
+      addPluginVersion(con);
+      try (OutputStream out = con.getOutputStream()) {
+        out.write(chunk, 0, size);
+      }
+      int responseCode = con.getResponseCode();
+      String body = ConnectionManager.get().readResponse(con, StandardCharsets.UTF_8);
+      released = true;
+      if (responseCode / 100 == 4) {
+        return new ClientResponse(responseCode, body);
+      }
+      if (responseCode / 100 != 2) {
+        throw new HttpStatusException(responseCode, String.format("Chunk at offset %d was not acknowledged. Response code was: %d", offset, responseCode));
+      }
+      return null;
+    } finally {
+      active = null;
+      if (!released) {
+        ConnectionManager.get().discard(con);
+      }
+    }
+  }
+
+  private ClientResponse complete(String uploadId) throws IOException {
+    String completeURL = AdvisorClientConfig.apiChunkUploadCompleteURI(username, request.getInstanceId(), uploadId,
+        EmailUtil.urlEncode(request.getCc()));
+    HttpURLConnection con = HttpUrlConnectionFactory.openOutputConnection(completeURL, "POST", 0, timeouts);
+    active = con;
+    boolean released = false;
+    try {
+      if (aborted) {
+        throw new InterruptedIOException("The upload was aborted");
+      }
+      con.setRequestProperty("X-ADVISOR-BUNDLE-NAME", request.getFileName());
+      addPluginVersion(con);
+      con.getOutputStream().close();
+
+      int status = con.getResponseCode();
+      released = true;
+      return new ClientResponse(status, ConnectionManager.get().readResponse(con, StandardCharsets.UTF_8));
+    } finally {
+      active = null;
+      if (!released) {
+        ConnectionManager.get().discard(con);
+      }
+    }
+  }
+
+  private void addPluginVersion(HttpURLConnection con) {
+    con.setRequestProperty("X-ADVISOR-PLUGIN-VERSION", request.getPluginVersion() != null ? request.getPluginVersion() : "N/A");
+  }
+
+  /**
+   * Loads the checkpoint of a previous attempt, or starts a new upload if there is none or if the bundle changed
+   * since it was written.
+   */
+  private Properties loadCheckpoint(File checkpointFile, File bundle) {
+    if (checkpointFile.isFile()) {
+      Properties checkpoint = new Properties();
+      try (InputStream in = new FileInputStream(checkpointFile)) {
+        checkpoint.load(in);
+        if (Long.toString(bundle.length()).equals(checkpoint.getProperty(LENGTH))
+            && Long.toString(bundle.lastModified()).equals(checkpoint.getProperty(LAST_MODIFIED))
+            && Integer.toString(chunkSize).equals(checkpoint.getProperty(CHUNK_SIZE))
+            && checkpoint.getProperty(UPLOAD_ID) != null
+            && checkpoint.getProperty(OFFSET) != null) {
+          return checkpoint;
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        LOG.log(Level.WARNING, "Ignoring unreadable upload checkpoint " + checkpointFile, e);
+      }
+    }
+    Properties checkpoint = new Properties();
+    checkpoint.setProperty(UPLOAD_ID, UUID.randomUUID().toString());
+    checkpoint.setProperty(LENGTH, Long.toString(bundle.length()));
+    checkpoint.setProperty(LAST_MODIFIED, Long.toString(bundle.lastModified()));
+    checkpoint.setProperty(CHUNK_SIZE, Integer.toString(chunkSize));
+    checkpoint.setProperty(OFFSET, "0");
+    return checkpoint;
+  }
+
+  /**
+   * Writes the checkpoint to a temporary file first, so that a crash never leaves a truncated checkpoint behind.
+   */
+  private static void saveCheckpoint(File checkpointFile, Properties checkpoint) throws IOException {
+    File tmp = new File(checkpointFile.getParentFile(), checkpointFile.getName() + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      checkpoint.store(out, "CloudBees Jenkins Advisor resumable upload");
+    }
+    Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void deleteCheckpoint(File checkpointFile) {
+    try {
+      Files.deleteIfExists(checkpointFile.toPath());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to delete upload checkpoint " + checkpointFile, e);
+    }
+  }
+}
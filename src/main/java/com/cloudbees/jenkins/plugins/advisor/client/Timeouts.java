@@ -0,0 +1,87 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import java.net.SocketTimeoutException;
+import java.util.Date;
+
+/**
+ * The connect and read timeouts of a call to the Advisor service, each kind of call having its own profile. A deadline,
+ * e.g. the end of the time budget of a {@code BundleUpload} run, caps both timeouts so that the calls made on its
+ * behalf cannot outlive it.
+ */
+public final class Timeouts {
+
+  /**
+   * The deadline of calls that only have their own timeouts.
+   */
+  public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  private final int connectMillis;
+  private final int readMillis;
+  private final long deadline;
+
+  /**
+   * @param connectMillis the connect timeout, {@code 0} for none.
+   * @param readMillis    the read timeout, {@code 0} for none.
+   * @param deadline      the time in milliseconds past which no call can be made, or {@link #NO_DEADLINE}.
+   */
+  Timeouts(int connectMillis, int readMillis, long deadline) {
+    this.connectMillis = connectMillis;
+    this.readMillis = readMillis;
+    this.deadline = deadline;
+  }
+
+  public static Timeouts healthCheck() {
+    return new Timeouts(AdvisorClientConfig.healthCheckConnectTimeoutMilliseconds(),
+        AdvisorClientConfig.healthCheckReadTimeoutMilliseconds(), NO_DEADLINE);
+  }
+
+  public static Timeouts testEmail() {
+    return new Timeouts(AdvisorClientConfig.testEmailConnectTimeoutMilliseconds(),
+        AdvisorClientConfig.testEmailReadTimeoutMilliseconds(), NO_DEADLINE);
+  }
+
+  public static Timeouts upload() {
+    return new Timeouts(AdvisorClientConfig.insightsUploadIdleTimeoutMilliseconds(),
+        AdvisorClientConfig.insightsUploadTimeoutMilliseconds(), NO_DEADLINE);
+  }
+
+  /**
+   * @param deadline the time in milliseconds past which no call can be made, or {@link #NO_DEADLINE}.
+   * @return the same timeouts, with the earlier of both deadlines.
+   */
+  public Timeouts withDeadline(long deadline) {
+    return deadline >= this.deadline ? this : new Timeouts(connectMillis, readMillis, deadline);
+  }
+
+  /**
+   * @return the connect timeout, capped by the time left until the deadline.
+   * @throws SocketTimeoutException if the deadline already passed.
+   */
+  public int getConnectMillis() throws SocketTimeoutException {
+    return cap(connectMillis);
+  }
+
+  /**
+   * @return the read timeout, capped by the time left until the deadline.
+   * @throws SocketTimeoutException if the deadline already passed.
+   */
+  public int getReadMillis() throws SocketTimeoutException {
+    return cap(readMillis);
+  }
+
+  public long getDeadline() {
+    return deadline;
+  }
+
+  private int cap(int timeout) throws SocketTimeoutException {
+    if (deadline == NO_DEADLINE) {
+      return timeout;
+    }
+    long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0) {
+      throw new SocketTimeoutException("The deadline of the call passed at " + new Date(deadline));
+    }
+    // 0 waits forever
+    return timeout > 0 && timeout <= remaining ? timeout : (int) Math.min(Integer.MAX_VALUE, remaining);
+  }
+}
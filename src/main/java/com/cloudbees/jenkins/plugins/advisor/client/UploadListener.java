@@ -0,0 +1,16 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+/**
+ * Follows a bundle upload as it is sent, e.g. to report its progress.
+ */
+public interface UploadListener {
+
+  UploadListener NONE = bytes -> { };
+
+  /**
+   * Called from the uploading thread each time more of the request reaches the connection.
+   *
+   * @param bytes the number of bytes sent so far.
+   */
+  void onBytesSent(long bytes);
+}
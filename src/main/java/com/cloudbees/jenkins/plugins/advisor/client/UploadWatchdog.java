@@ -0,0 +1,125 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import hudson.Util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Aborts an upload that stops making progress, or that takes longer than its timeout, instead of waiting for a socket
+ * read timeout. Writing the request body is not covered by the read timeout at all.
+ *
+ * <p>Progress is tracked from the bytes reported to the {@link UploadListener}, after each buffer for a single request
+ * and after each acknowledged chunk for a resumable upload. Once the whole body is sent, only the timeout applies while
+ * the response is awaited.</p>
+ */
+final class UploadWatchdog implements UploadListener {
+
+  static final long CHECK_PERIOD_MILLIS = 1000;
+
+  private final UploadListener delegate;
+  private final long expectedBytes;
+  private final long timeoutMillis;
+  private final long stallMillis;
+  private final Runnable abort;
+  private final LongSupplier clock;
+
+  private final long start;
+  private volatile long firstBytes = -1;
+  private volatile long lastBytes;
+  private volatile long lastProgress;
+  private volatile String failure;
+  private ScheduledFuture<?> checks;
+
+  /**
+   * @param delegate      notified of the progress as well.
+   * @param expectedBytes the size of the request body, or {@code -1} if it is not known, which disables the stall
+   *                      detection.
+   * @param timeoutMillis the time given to the whole upload, {@code 0} for no limit.
+   * @param stallMillis   the time without progress after which the upload is stalled, {@code 0} for no limit.
+   * @param abort         aborts the upload.
+   * @param clock         the current time in milliseconds.
+   */
+  UploadWatchdog(UploadListener delegate, long expectedBytes, long timeoutMillis, long stallMillis, Runnable abort,
+                 LongSupplier clock) {
+    this.delegate = delegate;
+    this.expectedBytes = expectedBytes;
+    this.timeoutMillis = timeoutMillis;
+    this.stallMillis = expectedBytes > 0 ? stallMillis : 0;
+    this.abort = abort;
+    this.clock = clock;
+    this.start = clock.getAsLong();
+    this.lastProgress = start;
+  }
+
+  /**
+   * Starts checking the upload periodically, if there is anything to check.
+   *
+   * @return this watchdog.
+   */
+  UploadWatchdog start() {
+    if (timeoutMillis > 0 || stallMillis > 0) {
+      checks = ClientExecutor.scheduleWithFixedDelay(this::check, CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    return this;
+  }
+
+  /**
+   * Stops checking the upload, once it completed or failed.
+   */
+  void stop() {
+    if (checks != null) {
+      checks.cancel(false);
+    }
+  }
+
+  @Override
+  public void onBytesSent(long bytes) {
+    if (firstBytes < 0) {
+      // a resumed upload starts at the offset acknowledged before
+      firstBytes = bytes;
+    }
+    if (bytes > lastBytes) {
+      lastBytes = bytes;
+      lastProgress = clock.getAsLong();
+    }
+    delegate.onBytesSent(bytes);
+  }
+
+  void check() {
+    if (failure != null) {
+      return;
+    }
+    long now = clock.getAsLong();
+    if (timeoutMillis > 0 && now - start > timeoutMillis) {
+      trip(String.format("The upload did not complete within %s, after sending %d bytes",
+          Util.getTimeSpanString(timeoutMillis), lastBytes));
+    } else if (stallMillis > 0 && lastBytes < expectedBytes && now - lastProgress > stallMillis) {
+      trip(String.format("The upload stalled at %d of %d bytes for %s",
+          lastBytes, expectedBytes, Util.getTimeSpanString(now - lastProgress)));
+    }
+  }
+
+  private synchronized void trip(String reason) {
+    if (failure == null) {
+      failure = reason;
+      stop();
+      abort.run();
+    }
+  }
+
+  /**
+   * @return why the upload was aborted, or {@code null} if it was not.
+   */
+  String getFailure() {
+    return failure;
+  }
+
+  /**
+   * @return the bytes sent by this attempt, not counting those acknowledged before it was resumed.
+   */
+  long getBytesTransferred() {
+    return firstBytes < 0 ? lastBytes : lastBytes - firstBytes;
+  }
+}
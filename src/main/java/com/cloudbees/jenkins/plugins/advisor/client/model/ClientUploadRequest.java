@@ -1,17 +1,39 @@
 package com.cloudbees.jenkins.plugins.advisor.client.model;
 
+import com.cloudbees.jenkins.plugins.advisor.client.PayloadWriter;
+
 import java.io.File;
 
 public class ClientUploadRequest {
 
   private final String instanceId;
   private final File file;
+  private final String fileName;
+  private final PayloadWriter payload;
   private final String cc;
   private final String pluginVersion;
 
   public ClientUploadRequest(String instanceId, File file, String cc, String pluginVersion) {
+    this(instanceId, file, file != null ? file.getName() : null, cc, pluginVersion);
+  }
+
+  /**
+   * @param fileName the name the file is uploaded under, if it is kept under another name.
+   */
+  public ClientUploadRequest(String instanceId, File file, String fileName, String cc, String pluginVersion) {
     this.instanceId = instanceId;
     this.file = file;
+    this.fileName = fileName;
+    this.payload = null;
+    this.cc = cc;
+    this.pluginVersion = pluginVersion;
+  }
+
+  public ClientUploadRequest(String instanceId, String fileName, PayloadWriter payload, String cc, String pluginVersion) {
+    this.instanceId = instanceId;
+    this.file = null;
+    this.fileName = fileName;
+    this.payload = payload;
     this.cc = cc;
     this.pluginVersion = pluginVersion;
   }
@@ -20,10 +42,24 @@ public class ClientUploadRequest {
     return instanceId;
   }
 
+  /**
+   * @return the file to upload, or {@code null} if the content is streamed from {@link #getPayload()}.
+   */
   public File getFile() {
     return file;
   }
 
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * @return the writer producing the content to upload, or {@code null} if the content is read from {@link #getFile()}.
+   */
+  public PayloadWriter getPayload() {
+    return payload;
+  }
+
   public String getCc() {
     return cc;
   }
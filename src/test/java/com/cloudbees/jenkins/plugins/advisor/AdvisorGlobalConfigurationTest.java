@@ -99,6 +99,8 @@ public class AdvisorGlobalConfigurationTest {
     DoConfigureInfo doConfigure = new DoConfigureInfo();
     doConfigure.setUp(email);
     j.executeOnServer(doConfigure);
+    // the page shows the outcome of the last background check
+    HealthProbe.get().probe(email);
     managePage = wc.goTo("cloudbees-jenkins-advisor");
     String t = managePage.asText();
     System.out.println("\n\n\n\n\nT: " + t + "\n\n\n\n");
@@ -124,6 +126,7 @@ public class AdvisorGlobalConfigurationTest {
     doConfigure.setUp(email);
     doConfigure.setTerms(true);
     j.executeOnServer(doConfigure);
+    HealthProbe.get().probe(email);
     managePage = wc.goTo("cloudbees-jenkins-advisor");
     assertTrue(managePage.asText().contains("You are connected"));
   }
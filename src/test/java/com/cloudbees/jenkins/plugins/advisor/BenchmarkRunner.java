@@ -0,0 +1,41 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of the plugin. Skipped unless the build is started with {@code mvn test -Dbenchmark}.
+ * A single benchmark class can be selected with {@code -Dbenchmark=<regexp>}, and JMH profilers enabled with
+ * {@code -Dbenchmark.profilers=gc,stack}. Each benchmark class declares its own mode and time unit.
+ */
+public class BenchmarkRunner {
+
+  @Test
+  public void runJmhBenchmarks() throws Exception {
+    String benchmark = System.getProperty("benchmark");
+    Assume.assumeTrue("JMH benchmarks only run with -Dbenchmark", benchmark != null);
+
+    ChainedOptionsBuilder options = new OptionsBuilder()
+        .include(benchmark.isEmpty() || "true".equals(benchmark) ? getClass().getPackage().getName() + ".*Benchmark" : benchmark)
+        .warmupIterations(3)
+        .measurementIterations(5)
+        .forks(1)
+        .shouldFailOnError(true)
+        .shouldDoGC(true)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-report.json");
+
+    String profilers = System.getProperty("benchmark.profilers");
+    if (profilers != null) {
+      for (String profiler : profilers.split(",")) {
+        options.addProfiler(profiler.trim());
+      }
+    }
+
+    new Runner(options.build()).run();
+  }
+}
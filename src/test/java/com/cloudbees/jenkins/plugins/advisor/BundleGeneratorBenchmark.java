@@ -0,0 +1,115 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.support.api.Component;
+import com.cloudbees.jenkins.support.api.Container;
+import com.cloudbees.jenkins.support.api.Content;
+import hudson.security.Permission;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generation of a bundle made of synthetic components, written to a stream that discards it.
+ * The content mimics log files, so that compression costs are close to the ones of a real bundle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BundleGeneratorBenchmark {
+
+  @Param({"16"})
+  public int components;
+
+  @Param({"1024", "1048576", "8388608"})
+  public int componentSize;
+
+  @Param({"1", "4"})
+  public int parallelism;
+
+  private List<Component> synthetic;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    synthetic = new ArrayList<>();
+    for (int i = 0; i < components; i++) {
+      synthetic.add(new SyntheticComponent(i, logLines(i, componentSize)));
+    }
+  }
+
+  @Benchmark
+  public GenerationHistory.Run writeBundle() throws IOException {
+    BundleGenerator generator = new BundleGenerator(synthetic).withParallelism(parallelism);
+    generator.writeTo(new NullOutputStream());
+    return generator.getProfile();
+  }
+
+  private static byte[] logLines(long seed, int size) {
+    Random random = new Random(seed);
+    String[] levels = {"INFO", "FINE", "WARNING", "SEVERE"};
+    StringBuilder text = new StringBuilder(size + 128);
+    while (text.length() < size) {
+      text.append("2019-05-02 10:").append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50))
+          .append(" [id=").append(random.nextInt(1000)).append("]\t").append(levels[random.nextInt(levels.length)])
+          .append("\thudson.model.Run#execute: job-").append(random.nextInt(200)).append(" #")
+          .append(random.nextInt(5000)).append(" completed: SUCCESS\n");
+    }
+    text.setLength(size);
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static final class SyntheticComponent extends Component {
+    private final int index;
+    private final byte[] content;
+
+    private SyntheticComponent(int index, byte[] content) {
+      this.index = index;
+      this.content = content;
+    }
+
+    @Nonnull
+    @Override
+    public String getId() {
+      return "Synthetic" + index;
+    }
+
+    @Nonnull
+    @Override
+    public String getDisplayName() {
+      return "Synthetic component " + index;
+    }
+
+    @Nonnull
+    @Override
+    public Set<Permission> getRequiredPermissions() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public void addContents(@Nonnull Container container) {
+      container.add(new Content("synthetic/component-" + index + ".log") {
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+          os.write(content);
+        }
+      });
+    }
+  }
+}
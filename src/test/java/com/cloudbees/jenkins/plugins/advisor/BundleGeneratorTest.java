@@ -0,0 +1,281 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.support.api.Component;
+import com.cloudbees.jenkins.support.api.Container;
+import com.cloudbees.jenkins.support.api.Content;
+import com.cloudbees.jenkins.support.api.StringContent;
+import hudson.security.Permission;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class BundleGeneratorTest {
+
+  @Test
+  public void writesAllComponentsAndManifest() throws Exception {
+    BundleGenerator generator = new BundleGenerator(Arrays.asList(nodes("agent-1"), plugins("git:4.0")));
+
+    List<String> entries = entries(write(generator));
+
+    assertThat(entries, is(Arrays.asList("nodes.md", "plugins.md", BundleGenerator.MANIFEST)));
+    assertThat(generator.getDigests(), hasKey("Nodes"));
+    assertThat(generator.getDigests(), hasKey("Plugins"));
+  }
+
+  @Test
+  public void profilesEachComponent() throws Exception {
+    BundleGenerator generator = new BundleGenerator(Arrays.asList(nodes("agent-1"), plugins("git:4.0")));
+
+    write(generator);
+
+    List<GenerationHistory.ComponentStatistics> components = generator.getProfile().getComponents();
+    assertThat(components.size(), is(2));
+    assertThat(components.get(0).getId(), is("Nodes"));
+    assertThat(components.get(0).getOutputBytes(), is((long) "agent-1".length()));
+    assertThat(components.get(1).getOutputBytes(), is((long) "git:4.0".length()));
+  }
+
+  @Test
+  public void parallelGenerationKeepsComponentOrder() throws Exception {
+    BundleGenerator sequential = new BundleGenerator(Arrays.asList(nodes("agent-1"), plugins("git:4.0")));
+    BundleGenerator parallel = new BundleGenerator(Arrays.asList(nodes("agent-1"), plugins("git:4.0")))
+        .withParallelism(4);
+
+    List<String> sequentialEntries = entries(write(sequential));
+    List<String> parallelEntries = entries(write(parallel));
+
+    assertThat(parallelEntries, is(sequentialEntries));
+    assertThat(parallel.getDigests(), is(sequential.getDigests()));
+  }
+
+  @Test
+  public void deltaLeavesOutUnchangedComponents() throws Exception {
+    BundleGenerator first = new BundleGenerator(Arrays.asList(nodes("agent-1"), plugins("git:4.0")));
+    write(first);
+    Map<String, String> digests = first.getDigests();
+
+    BundleGenerator delta = new BundleGenerator(Arrays.asList(nodes("agent-2"), plugins("git:4.0")))
+        .withPreviousDigests(digests);
+    List<String> entries = entries(write(delta));
+
+    assertThat(entries, hasItem("nodes.md"));
+    assertThat(entries, not(hasItem("plugins.md")));
+    assertThat(entries, hasItem(BundleGenerator.UNCHANGED_COMPONENTS));
+    assertThat(delta.getUnchangedComponents(), contains("Plugins"));
+    assertThat(delta.getDigests().get("Plugins"), is(digests.get("Plugins")));
+    assertThat(delta.getDigests().get("Nodes"), is(not(digests.get("Nodes"))));
+  }
+
+  @Test
+  public void failingComponentIsReportedInErrors() throws Exception {
+    BundleGenerator generator = new BundleGenerator(Arrays.asList(new Failing(), plugins("git:4.0")));
+
+    List<String> entries = entries(write(generator));
+
+    assertThat(entries, hasItem("plugins.md"));
+    assertThat(entries, hasItem(BundleGenerator.ERRORS));
+  }
+
+  @Test(expected = InterruptedIOException.class)
+  public void cancelledGenerationStopsBetweenComponents() throws Exception {
+    BundleGenerator generator = new BundleGenerator(Arrays.asList(nodes("agent-1"), plugins("git:4.0")));
+
+    Thread.currentThread().interrupt();
+    try {
+      write(generator);
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void cancelledGenerationWaitsForItsComponents() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicBoolean finished = new AtomicBoolean();
+    BundleGenerator generator = new BundleGenerator(Arrays.asList(new Slow(started, finished), plugins("git:4.0")))
+        .withParallelism(2);
+    Set<String> stagingDirs = stagingDirs();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Thread generation = new Thread(() -> {
+      try {
+        write(generator);
+      } catch (Throwable t) {
+        failure.set(t);
+      }
+    });
+    generation.start();
+    assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+    generation.interrupt();
+    generation.join(TimeUnit.SECONDS.toMillis(10));
+
+    assertThat(failure.get(), instanceOf(InterruptedIOException.class));
+    // the slow component was still running when the generation was cancelled
+    assertThat(finished.get(), is(true));
+    assertThat(stagingDirs(), is(stagingDirs));
+  }
+
+  static Set<String> stagingDirs() {
+    String[] names = new File(System.getProperty("java.io.tmpdir")).list((dir, name) -> name.startsWith("advisor-bundle"));
+    return names != null ? new HashSet<>(Arrays.asList(names)) : Collections.<String>emptySet();
+  }
+
+  static List<Component> components() {
+    return Arrays.asList(nodes("agent-1"), plugins("git:4.0"));
+  }
+
+  private static byte[] write(BundleGenerator generator) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    generator.writeTo(out);
+    return out.toByteArray();
+  }
+
+  private static List<String> entries(byte[] zip) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        names.add(entry.getName());
+      }
+    }
+    return names;
+  }
+
+  static Component nodes(String content) {
+    return new Fixed("Nodes", "nodes.md", content);
+  }
+
+  static Component plugins(String content) {
+    return new Fixed("Plugins", "plugins.md", content);
+  }
+
+  /**
+   * A component writing a single file with fixed content.
+   */
+  private static final class Fixed extends Component {
+    private final String name;
+    private final String fileName;
+    private final String content;
+
+    private Fixed(String name, String fileName, String content) {
+      this.name = name;
+      this.fileName = fileName;
+      this.content = content;
+    }
+
+    @Nonnull
+    @Override
+    public String getId() {
+      return name;
+    }
+
+    @Nonnull
+    @Override
+    public String getDisplayName() {
+      return name;
+    }
+
+    @Nonnull
+    @Override
+    public Set<Permission> getRequiredPermissions() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public void addContents(@Nonnull Container container) {
+      container.add(new StringContent(fileName, content));
+    }
+  }
+
+  /**
+   * A component that takes its time to stop once interrupted, like one blocked in uninterruptible I/O.
+   */
+  private static final class Slow extends Component {
+    private final CountDownLatch started;
+    private final AtomicBoolean finished;
+
+    private Slow(CountDownLatch started, AtomicBoolean finished) {
+      this.started = started;
+      this.finished = finished;
+    }
+
+    @Nonnull
+    @Override
+    public String getDisplayName() {
+      return "Slow";
+    }
+
+    @Nonnull
+    @Override
+    public Set<Permission> getRequiredPermissions() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public void addContents(@Nonnull Container container) {
+      container.add(new Content("slow.md") {
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+          started.countDown();
+          long end = System.currentTimeMillis() + 500;
+          while (System.currentTimeMillis() < end) {
+            try {
+              Thread.sleep(end - System.currentTimeMillis());
+            } catch (InterruptedException e) {
+              // ignored until the end
+            }
+          }
+          os.write("slow".getBytes(StandardCharsets.UTF_8));
+          finished.set(true);
+        }
+      });
+    }
+  }
+
+  private static final class Failing extends Component {
+    @Nonnull
+    @Override
+    public String getDisplayName() {
+      return "Failing";
+    }
+
+    @Nonnull
+    @Override
+    public Set<Permission> getRequiredPermissions() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public void addContents(@Nonnull Container container) {
+      throw new IllegalStateException("boom");
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BundleRetentionTest {
+
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void keepsTheLastBundles() throws Exception {
+    BundleRetention retention = BundleRetention.get();
+    File first = bundle(retention, "bundle-1.zip", 100, 3);
+    File second = bundle(retention, "bundle-2.zip", 100, 2);
+    File third = bundle(retention, "bundle-3.zip", 100, 1);
+
+    BundleRetention.Reclaimed reclaimed = retention.clean(Collections.emptySet(), 2, 10 * DAY, 1000);
+
+    assertThat(reclaimed.getBundles(), is(1));
+    assertThat(reclaimed.getBytes(), is(100L));
+    assertThat(first.exists(), is(false));
+    assertThat(second.exists(), is(true));
+    assertThat(third.exists(), is(true));
+    assertThat(retention.getBundles().size(), is(2));
+  }
+
+  @Test
+  public void deletesOldAndOversizedBundles() throws Exception {
+    BundleRetention retention = BundleRetention.get();
+    File old = bundle(retention, "bundle-1.zip", 100, 5);
+    File large = bundle(retention, "bundle-2.zip", 500, 1);
+    File recent = bundle(retention, "bundle-3.zip", 100, 0);
+
+    retention.clean(Collections.emptySet(), 10, 2 * DAY, 300);
+
+    assertThat(old.exists(), is(false));
+    assertThat(large.exists(), is(false));
+    assertThat(recent.exists(), is(true));
+  }
+
+  @Test
+  public void keepsBundlesStillToUpload() throws Exception {
+    BundleRetention retention = BundleRetention.get();
+    File pending = bundle(retention, "bundle-1.zip", 100, 1);
+
+    retention.clean(Collections.singleton(pending.getAbsoluteFile()), 0, DAY, 1000);
+
+    assertThat(pending.exists(), is(true));
+  }
+
+  private File bundle(BundleRetention retention, String name, int size, int ageDays) throws Exception {
+    File bundle = new File(temp.getRoot(), name);
+    Files.write(bundle.toPath(), new byte[size]);
+    assertThat(bundle.setLastModified(System.currentTimeMillis() - ageDays * DAY), is(true));
+    retention.register(bundle);
+    return bundle;
+  }
+}
@@ -1,37 +1,56 @@
 package com.cloudbees.jenkins.plugins.advisor;
 
+import com.cloudbees.jenkins.plugins.advisor.client.CircuitBreaker;
+import com.cloudbees.jenkins.plugins.advisor.client.ResumableUpload;
+import com.cloudbees.jenkins.support.SupportPlugin;
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebRequest;
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import hudson.LocalPluginManager;
 import hudson.PluginWrapper;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.JenkinsRule.WebClient;
 import org.jvnet.hudson.test.WithoutJenkins;
 import org.jvnet.hudson.test.recipes.WithPluginManager;
 import org.jvnet.hudson.test.recipes.WithTimeout;
 
 import javax.annotation.CheckForNull;
 import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.any;
 import static com.github.tomakehurst.wiremock.client.WireMock.anyRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.anyUrl;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
 import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
 import static com.github.tomakehurst.wiremock.client.WireMock.post;
 import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.put;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
 import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static java.lang.String.format;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.emptyArray;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
@@ -39,6 +58,10 @@ import static org.mockito.Mockito.spy;
 public class BundleUploadTest {
 
   private static final String TEST_EMAIL = "test@acme.com";
+  private static final String FAILURE_THRESHOLD_KEY =
+      "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorCircuitBreakerFailureThreshold";
+  private static final String CHUNK_SIZE_KEY =
+      "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorResumableUploadChunkSizeKilobytes";
 
   @Rule
   public JenkinsRule j = new JenkinsRule();
@@ -50,6 +73,11 @@ public class BundleUploadTest {
     wireMockRule.resetAll();
   }
 
+  @After
+  public void resetCircuitBreaker() {
+    CircuitBreaker.get().reset();
+  }
+
   @WithTimeout(30)
   @Test
   public void execute() throws Exception {
@@ -82,6 +110,7 @@ public class BundleUploadTest {
 
     // Refresh the configuration?
     assertThat(config.getLastBundleResult(), containsString("Successfully uploaded a bundle"));
+    assertThat(GenerationHistory.get().getLastRun(), is(notNullValue()));
   }
 
   @Test
@@ -122,6 +151,195 @@ public class BundleUploadTest {
     subject.run();
   }
 
+  @WithTimeout(60)
+  @Test
+  public void onlyTransientFailuresAreRetried() throws Exception {
+    BundleUpload subject = j.getInstance().getExtensionList(BundleUpload.class).get(0);
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    config.setEmail(TEST_EMAIL);
+    config.setValid(true);
+    config.setAcceptToS(true);
+
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(503)));
+    awaitRun(subject);
+
+    RetryState retry = RetryState.load();
+    assertThat(retry, is(notNullValue()));
+    assertThat(retry.getAttempts(), is(1));
+    assertThat(config.getLastBundleResult(), containsString("Retrying at"));
+
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(400)));
+    awaitRun(subject);
+
+    assertThat(RetryState.load(), is(nullValue()));
+    assertThat(config.getLastBundleResult(), not(containsString("Retrying at")));
+  }
+
+  @WithTimeout(120)
+  @Test
+  public void circuitBreakerSkipsUploadsUntilTheServiceIsBack() throws Exception {
+    BundleUpload subject = j.getInstance().getExtensionList(BundleUpload.class).get(0);
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    config.setEmail(TEST_EMAIL);
+    config.setValid(true);
+    config.setAcceptToS(true);
+    String uploadURL = format("/api/users/%s/upload/%s", TEST_EMAIL, j.getInstance().getLegacyInstanceId());
+    CircuitBreaker breaker = CircuitBreaker.get();
+
+    // the test configuration disables the circuit breaker
+    System.setProperty(FAILURE_THRESHOLD_KEY, "2");
+    try {
+      stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(503)));
+      awaitRun(subject);
+      assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+      awaitRun(subject);
+      assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+
+      // a scheduled run neither generates a bundle nor calls the service while the circuit is open
+      RetryState.clear();
+      int calls = wireMockRule.getAllServeEvents().size();
+      awaitRun(subject, subject::run);
+      assertThat(config.getLastBundleResult(), containsString("SKIPPED"));
+      assertThat(wireMockRule.getAllServeEvents().size(), is(calls));
+
+      // an upload asked for by an administrator probes the service right away
+      stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+      stubFor(post(urlEqualTo(uploadURL)).willReturn(aResponse().withStatus(200)));
+      awaitRun(subject);
+      assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+      assertThat(config.getLastBundleResult(), containsString("Successfully uploaded a bundle"));
+      verify(postRequestedFor(urlEqualTo(uploadURL)));
+    } finally {
+      System.clearProperty(FAILURE_THRESHOLD_KEY);
+    }
+  }
+
+  @WithTimeout(60)
+  @Test
+  public void outboxIsDrainedWhateverBecomesOfTheBundleOfTheRun() throws Exception {
+    BundleUpload subject = j.getInstance().getExtensionList(BundleUpload.class).get(0);
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    config.setEmail(TEST_EMAIL);
+    config.setValid(true);
+    config.setAcceptToS(true);
+    File outbox = new File(j.jenkins.getRootDir(), Outbox.DIRECTORY);
+    assertThat(outbox.mkdirs(), is(true));
+    Files.write(new File(outbox, "0000000000001-queued-bundle.zip").toPath(), new byte[100]);
+
+    String uploadURL = format("/api/users/%s/upload/%s", TEST_EMAIL, j.getInstance().getLegacyInstanceId());
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+    // the bundle of the run is rejected, the queued one is accepted under its original name
+    stubFor(post(urlEqualTo(uploadURL)).willReturn(aResponse().withStatus(400)));
+    stubFor(post(urlEqualTo(uploadURL)).atPriority(1)
+        .withRequestBody(containing("filename=\"queued-bundle.zip\""))
+        .willReturn(aResponse().withStatus(200)));
+    awaitRun(subject);
+
+    assertThat(config.getLastBundleResult(), containsString("Bundle upload failed"));
+    assertThat(outbox.list(), emptyArray());
+  }
+
+  /**
+   * Triggers a run and waits for it to finish.
+   */
+  private static void awaitRun(BundleUpload subject) throws InterruptedException {
+    awaitRun(subject, () -> assertThat(subject.trigger(), is(nullValue())));
+  }
+
+  /**
+   * Starts a run and waits for it to finish.
+   */
+  private static void awaitRun(BundleUpload subject, Runnable start) throws InterruptedException {
+    UploadProgress previous = subject.getProgress();
+    start.run();
+    while (subject.getProgress() == previous || !subject.getProgress().isFinished() || subject.isRunning()) {
+      Thread.sleep(100L);
+    }
+  }
+
+  @WithTimeout(120)
+  @Test
+  public void cancelledUploadLeavesNothingBehind() throws Exception {
+    BundleUpload subject = j.getInstance().getExtensionList(BundleUpload.class).get(0);
+    assertStalledUploadIsCancelled(subject, () -> assertThat(subject.cancel("test"), is(true)));
+
+    assertThat(AdvisorGlobalConfiguration.getInstance().getLastBundleResult(), containsString("test"));
+  }
+
+  @WithTimeout(120)
+  @Test
+  public void uploadIsCancelledFromTheManagementPage() throws Exception {
+    BundleUpload subject = j.getInstance().getExtensionList(BundleUpload.class).get(0);
+    assertStalledUploadIsCancelled(subject, () -> {
+      WebClient wc = j.createWebClient();
+      wc.getOptions().setThrowExceptionOnFailingStatusCode(false);
+      WebRequest req = new WebRequest(
+          new URL(j.jenkins.getRootUrl() + AdvisorGlobalConfiguration.PLUGIN_NAME + "/cancelUpload"),
+          HttpMethod.POST);
+      j.assertGoodStatus(wc.getPage(wc.addCrumb(req)));
+    });
+
+    assertThat(AdvisorGlobalConfiguration.getInstance().getLastBundleResult(), containsString("Cancelled by"));
+  }
+
+  @WithTimeout(120)
+  @Test
+  public void uploadIsCancelledAtTheDeadlineOfTheRun() throws Exception {
+    BundleUpload subject = j.getInstance().getExtensionList(BundleUpload.class).get(0);
+    subject.runTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+    try {
+      // nothing to do, the deadline cancels the run
+      assertStalledUploadIsCancelled(subject, () -> { });
+    } finally {
+      subject.runTimeoutMillis = TimeUnit.MINUTES.toMillis(BundleUpload.RUN_TIMEOUT_MINUTES);
+    }
+
+    assertThat(AdvisorGlobalConfiguration.getInstance().getLastBundleResult(), containsString("deadline"));
+  }
+
+  /**
+   * Starts a resumable upload whose chunks after the first one never get a response, cancels it and checks that the
+   * bundle, its checkpoint and the staging directories of the run are gone.
+   */
+  private void assertStalledUploadIsCancelled(BundleUpload subject, Cancellation cancellation) throws Exception {
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    config.setEmail(TEST_EMAIL);
+    config.setValid(true);
+    config.setAcceptToS(true);
+
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+    stubFor(put(urlMatching(".*/chunks/.*")).willReturn(aResponse().withStatus(200).withFixedDelay(60000)));
+    stubFor(put(urlMatching(".*/chunks/.*")).withHeader("Content-Range", matching("bytes 0-.*"))
+        .willReturn(aResponse().withStatus(200)));
+
+    Set<String> stagingDirs = BundleGeneratorTest.stagingDirs();
+    File bundleDir = SupportPlugin.getRootDirectory();
+    System.setProperty(CHUNK_SIZE_KEY, "1");
+    try {
+      UploadProgress previous = subject.getProgress();
+      assertThat(subject.trigger(), is(nullValue()));
+      while (ResumableUpload.findPending(bundleDir).isEmpty()) {
+        Thread.sleep(100L);
+      }
+      cancellation.cancel();
+      while (subject.getProgress() == previous || !subject.getProgress().isFinished() || subject.isRunning()) {
+        Thread.sleep(100L);
+      }
+    } finally {
+      System.clearProperty(CHUNK_SIZE_KEY);
+    }
+
+    assertThat(config.getLastBundleResult(), containsString("CANCELLED"));
+    assertThat(ResumableUpload.findPending(bundleDir), is(empty()));
+    assertThat(bundleDir.list((dir, name) -> name.endsWith(ResumableUpload.CHECKPOINT_SUFFIX)), is(emptyArray()));
+    assertThat(RetryState.load(), is(nullValue()));
+    assertThat(BundleGeneratorTest.stagingDirs(), is(stagingDirs));
+  }
+
+  private interface Cancellation {
+    void cancel() throws Exception;
+  }
+
   @WithoutJenkins
   @Test
   public void getRecurrencePeriod() throws Exception {
@@ -134,6 +352,17 @@ public class BundleUploadTest {
         assertThat(new BundleUpload().getInitialDelay(), is(equalTo(TimeUnit.MINUTES.toMillis(BundleUpload.INITIAL_DELAY_MINUTES))));
     }
 
+  @Test
+  public void jitterIsStableAndWithinSpreadWindow() {
+    BundleUpload subject = j.getInstance().getExtensionList(BundleUpload.class).get(0);
+
+    long jitter = subject.getJitterMillis();
+
+    assertThat(jitter >= 0 && jitter < TimeUnit.MINUTES.toMillis(BundleUpload.SPREAD_WINDOW_MINUTES), is(true));
+    assertThat(new BundleUpload().getJitterMillis(), is(jitter));
+    assertThat(subject.getInitialDelay(), is(TimeUnit.MINUTES.toMillis(BundleUpload.INITIAL_DELAY_MINUTES) + jitter));
+  }
+
   /**
    * Work around issues where the PluginManager doesn't have permission to save files
    */
@@ -0,0 +1,122 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.cloudbees.jenkins.support.api.Component;
+import com.cloudbees.jenkins.support.api.Container;
+import com.cloudbees.jenkins.support.api.Content;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ComponentProfilerTest {
+
+  @Test
+  public void chargesEachContentToItsComponent() throws Exception {
+    ComponentProfiler profiler = new ComponentProfiler(
+        Arrays.asList(BundleGeneratorTest.nodes("agent-1"), BundleGeneratorTest.plugins("git:4.0")));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeBundle(profiler.wrap(), out);
+
+    assertThat(out.toString("UTF-8"), is("agent-1git:4.0"));
+    List<GenerationHistory.ComponentStatistics> statistics = profiler.getStatistics();
+    assertThat(statistics.size(), is(2));
+    assertThat(statistics.get(0).getId(), is("Nodes"));
+    assertThat(statistics.get(0).getOutputBytes(), is((long) "agent-1".length()));
+    assertThat(statistics.get(1).getId(), is("Plugins"));
+    assertThat(statistics.get(1).getOutputBytes(), is((long) "git:4.0".length()));
+  }
+
+  @Test
+  public void pausesBeforeTheNextContentWhileOverBudget() throws Exception {
+    CpuBudget budget = new CpuBudget(50);
+    // 100ms of CPU at 50% is worth 200ms of wall time
+    budget.charge(TimeUnit.MILLISECONDS.toNanos(100));
+    ComponentProfiler profiler = new ComponentProfiler(Arrays.asList(BundleGeneratorTest.nodes("agent-1")))
+        .withCpuBudget(budget);
+
+    writeBundle(profiler.wrap(), new ByteArrayOutputStream());
+
+    assertThat(budget.getCpuMillis(), greaterThanOrEqualTo(100L));
+    assertThat(budget.getPausedMillis(), greaterThanOrEqualTo(100L));
+  }
+
+  @Test
+  public void progressFollowsTheComponentBeingWritten() throws Exception {
+    UploadProgress progress = new UploadProgress();
+    progress.startGeneration(2);
+    ComponentProfiler profiler = new ComponentProfiler(
+        Arrays.asList(BundleGeneratorTest.nodes("agent-1"), BundleGeneratorTest.plugins("git:4.0")))
+        .withProgress(progress);
+    List<Content> contents = addContents(profiler.wrap());
+
+    contents.get(0).writeTo(new ByteArrayOutputStream());
+    assertThat(progress.getComponentNumber(), is(1));
+    assertThat(progress.getComponentName(), is("Nodes"));
+
+    contents.get(1).writeTo(new ByteArrayOutputStream());
+    assertThat(progress.getComponentNumber(), is(2));
+    assertThat(progress.getComponentName(), is("Plugins"));
+  }
+
+  @Test(expected = InterruptedIOException.class)
+  public void cancelledRunSkipsTheRemainingContents() throws Exception {
+    AtomicBoolean cancelled = new AtomicBoolean();
+    ComponentProfiler profiler = new ComponentProfiler(
+        Arrays.asList(BundleGeneratorTest.nodes("agent-1"), BundleGeneratorTest.plugins("git:4.0")))
+        .withCancellation(cancelled::get);
+    List<Content> contents = addContents(profiler.wrap());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    contents.get(0).writeTo(out);
+    cancelled.set(true);
+
+    try {
+      contents.get(1).writeTo(out);
+    } finally {
+      assertThat(out.toString("UTF-8"), is("agent-1"));
+    }
+  }
+
+  @Test
+  public void wrappedComponentsLookLikeTheOriginals() {
+    Component nodes = BundleGeneratorTest.nodes("agent-1");
+
+    Component wrapped = new ComponentProfiler(Arrays.asList(nodes)).wrap().get(0);
+
+    assertThat(wrapped.getId(), is(nodes.getId()));
+    assertThat(wrapped.getDisplayName(), is(nodes.getDisplayName()));
+    assertThat(wrapped.getRequiredPermissions(), is(nodes.getRequiredPermissions()));
+  }
+
+  /**
+   * Writes the components the way support-core does: all the contents are gathered first, then written.
+   */
+  static void writeBundle(List<Component> components, ByteArrayOutputStream out) throws IOException {
+    for (Content content : addContents(components)) {
+      content.writeTo(out);
+    }
+  }
+
+  private static List<Content> addContents(List<Component> components) {
+    List<Content> contents = new ArrayList<>();
+    for (Component component : components) {
+      component.addContents(new Container() {
+        @Override
+        public void add(Content content) {
+          contents.add(content);
+        }
+      });
+    }
+    return contents;
+  }
+}
@@ -0,0 +1,35 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CpuBudgetTest {
+
+  @Test
+  public void unlimitedBudgetNeverPauses() throws Exception {
+    CpuBudget budget = new CpuBudget(0);
+    budget.charge(TimeUnit.SECONDS.toNanos(10));
+    budget.pace();
+
+    assertThat(budget.isLimited(), is(false));
+    assertThat(budget.getPausedMillis(), is(0L));
+  }
+
+  @Test
+  public void overrunPausesUntilBackWithinBudget() throws Exception {
+    CpuBudget budget = new CpuBudget(50);
+    // 100ms of CPU at 50% is worth 200ms of wall time
+    budget.charge(TimeUnit.MILLISECONDS.toNanos(100));
+    long start = System.nanoTime();
+    budget.pace();
+
+    assertThat(budget.getCpuMillis(), is(100L));
+    assertThat(budget.getPausedMillis(), greaterThanOrEqualTo(100L));
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(100L));
+  }
+}
@@ -0,0 +1,108 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import hudson.model.TaskListener;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class HealthProbeTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(wireMockConfig());
+
+  @Test
+  public void cachesTheOutcomeOfTheCheck() {
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+    HealthProbe probe = HealthProbe.get();
+
+    HealthProbe.Status status = probe.probe("test@cloudbees.com");
+
+    assertThat(status.isConnected(), is(true));
+    assertThat(status.getMessage(), is(HealthProbe.CONNECTED));
+    assertThat(probe.getStatus(), is(status));
+    assertThat(probe.isStale(), is(false));
+  }
+
+  @Test
+  public void cachesFailures() {
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(503)));
+    HealthProbe probe = HealthProbe.get();
+
+    HealthProbe.Status status = probe.probe("test@cloudbees.com");
+
+    assertThat(status.isConnected(), is(false));
+    assertThat(status.getMessage(), containsString("503"));
+    assertThat(probe.getStatus(), is(status));
+  }
+
+  @Test
+  public void testedEmailIsNotCached() {
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+
+    HealthProbe.Status status = HealthProbe.check("unsaved@cloudbees.com");
+
+    assertThat(status.isConnected(), is(true));
+    assertThat(HealthProbe.get().getStatus(), nullValue());
+  }
+
+  @Test
+  public void refreshChecksInTheBackground() throws Exception {
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    config.setEmail("test@cloudbees.com");
+    config.setValid(true);
+    config.setAcceptToS(true);
+    HealthProbe probe = HealthProbe.get();
+
+    probe.refresh();
+    for (int i = 0; i < 100 && probe.getStatus() == null; i++) {
+      Thread.sleep(100L);
+    }
+
+    assertThat(probe.getStatus(), notNullValue());
+    assertThat(probe.getStatus().isConnected(), is(true));
+    verify(getRequestedFor(urlEqualTo("/api/health")));
+  }
+
+  @Test
+  public void nothingIsProbedUntilTheServiceMayBeContacted() {
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+    AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+    config.setEmail("test@cloudbees.com");
+    HealthProbe probe = HealthProbe.get();
+
+    config.setValid(false);
+    config.setAcceptToS(true);
+    probe.execute(TaskListener.NULL);
+    config.setValid(true);
+    config.setAcceptToS(false);
+    probe.execute(TaskListener.NULL);
+
+    verify(0, getRequestedFor(urlEqualTo("/api/health")));
+    assertThat(probe.getStatus(), nullValue());
+    assertThat(HealthProbe.getSkipReason(config), is("Terms of conditions not accepted"));
+
+    config.setAcceptToS(true);
+    probe.execute(TaskListener.NULL);
+
+    verify(getRequestedFor(urlEqualTo("/api/health")));
+    assertThat(probe.getStatus().isConnected(), is(true));
+    assertThat(HealthProbe.getSkipReason(config), nullValue());
+  }
+}
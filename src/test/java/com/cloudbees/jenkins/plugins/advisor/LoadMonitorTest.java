@@ -0,0 +1,31 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import hudson.model.FreeStyleProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class LoadMonitorTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void idleControllerIsNotDeferred() {
+    assertThat(new LoadMonitor().getDeferralReason(), is(nullValue()));
+  }
+
+  @Test
+  public void queuedItemsDeferUpload() throws Exception {
+    j.jenkins.setNumExecutors(0);
+    FreeStyleProject project = j.createFreeStyleProject();
+    project.scheduleBuild2(0);
+
+    assertThat(new LoadMonitor(0, 100, 100).getDeferralReason(), containsString("build queue"));
+  }
+}
@@ -0,0 +1,100 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class OutboxTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void enqueueMovesBundleIntoOutbox() throws Exception {
+    Outbox outbox = outbox(1000, 10, Outbox.Eviction.OLDEST_FIRST);
+    File bundle = bundle("bundle-1.zip", 100);
+
+    File queued = outbox.enqueue(bundle);
+
+    assertThat(bundle.exists(), is(false));
+    assertThat(queued.getName(), endsWith("-bundle-1.zip"));
+    assertThat(Outbox.originalName(queued), is("bundle-1.zip"));
+    assertThat(outbox.list().size(), is(1));
+    assertThat(outbox.getSizeBytes(), is(100L));
+  }
+
+  @Test
+  public void oldestBundlesAreEvictedFirst() throws Exception {
+    Outbox outbox = outbox(250, 2, Outbox.Eviction.OLDEST_FIRST);
+    outbox.enqueue(bundle("bundle-1.zip", 100));
+    Thread.sleep(2);
+    outbox.enqueue(bundle("bundle-2.zip", 100));
+    Thread.sleep(2);
+    outbox.enqueue(bundle("bundle-3.zip", 100));
+
+    List<File> queued = outbox.list();
+    assertThat(queued.size(), is(2));
+    assertThat(queued.get(0).getName(), endsWith("-bundle-2.zip"));
+    assertThat(queued.get(1).getName(), endsWith("-bundle-3.zip"));
+
+    outbox.enqueue(bundle("bundle-4.zip", 200));
+    queued = outbox.list();
+    assertThat(queued.size(), is(1));
+    assertThat(queued.get(0).getName(), endsWith("-bundle-4.zip"));
+  }
+
+  @Test
+  public void newestBundleWins() throws Exception {
+    Outbox outbox = outbox(1000, 10, Outbox.Eviction.NEWEST_WINS);
+    outbox.enqueue(bundle("bundle-1.zip", 100));
+    outbox.enqueue(bundle("bundle-2.zip", 100));
+
+    List<File> queued = outbox.list();
+    assertThat(queued.size(), is(1));
+    assertThat(queued.get(0).getName(), endsWith("-bundle-2.zip"));
+  }
+
+  @Test
+  public void bundleLargerThanBudgetIsNotQueued() throws Exception {
+    Outbox outbox = outbox(50, 10, Outbox.Eviction.OLDEST_FIRST);
+    File bundle = bundle("bundle-1.zip", 100);
+
+    assertThat(outbox.enqueue(bundle), is(nullValue()));
+    assertThat(bundle.exists(), is(true));
+  }
+
+  @Test
+  public void partialEnqueueIsDiscarded() throws Exception {
+    File directory = temp.newFolder("outbox");
+    Files.write(new File(directory, "0000000000001-bundle-1.zip.tmp").toPath(), new byte[10]);
+    Outbox outbox = new Outbox(directory, 1000, 10, Outbox.Eviction.OLDEST_FIRST);
+
+    assertThat(outbox.list().size(), is(0));
+    assertThat(directory.list().length, is(0));
+  }
+
+  @Test
+  public void evictionIsParsed() {
+    assertThat(Outbox.Eviction.parse("newest-wins"), is(Outbox.Eviction.NEWEST_WINS));
+    assertThat(Outbox.Eviction.parse("unknown"), is(Outbox.Eviction.OLDEST_FIRST));
+  }
+
+  private Outbox outbox(long maxBytes, int maxBundles, Outbox.Eviction eviction) {
+    return new Outbox(new File(temp.getRoot(), "outbox"), maxBytes, maxBundles, eviction);
+  }
+
+  private File bundle(String name, int size) throws Exception {
+    File bundle = new File(temp.getRoot(), name);
+    Files.write(bundle.toPath(), new byte[size]);
+    return bundle;
+  }
+}
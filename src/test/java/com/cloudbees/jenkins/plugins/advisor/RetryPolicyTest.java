@@ -0,0 +1,58 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void transientFailuresAreRetryable() {
+    assertThat(RetryPolicy.isRetryable(0), is(true));
+    assertThat(RetryPolicy.isRetryable(429), is(true));
+    assertThat(RetryPolicy.isRetryable(502), is(true));
+    assertThat(RetryPolicy.isRetryable(503), is(true));
+    assertThat(RetryPolicy.isRetryable(504), is(true));
+  }
+
+  @Test
+  public void clientErrorsAreFatal() {
+    assertThat(RetryPolicy.isRetryable(400), is(false));
+    assertThat(RetryPolicy.isRetryable(401), is(false));
+    assertThat(RetryPolicy.isRetryable(404), is(false));
+    assertThat(RetryPolicy.isRetryable(413), is(false));
+    assertThat(RetryPolicy.isRetryable(501), is(false));
+  }
+
+  @Test
+  public void attemptsAreLimited() {
+    RetryPolicy policy = new RetryPolicy(3, 1000, 60000, new Random(0));
+
+    assertThat(policy.canRetry(1), is(true));
+    assertThat(policy.canRetry(2), is(true));
+    assertThat(policy.canRetry(3), is(false));
+  }
+
+  @Test
+  public void backoffDoublesWithJitterUpToMaximum() {
+    RetryPolicy policy = new RetryPolicy(10, 1000, 10000, new Random(0));
+
+    for (int i = 0; i < 100; i++) {
+      assertDelay(policy.delayMillis(1), 1000);
+      assertDelay(policy.delayMillis(2), 2000);
+      assertDelay(policy.delayMillis(3), 4000);
+      assertDelay(policy.delayMillis(8), 10000);
+      assertDelay(policy.delayMillis(100), 10000);
+    }
+  }
+
+  private static void assertDelay(long delay, long backoff) {
+    assertThat(delay, greaterThanOrEqualTo(backoff / 2));
+    assertThat(delay, lessThanOrEqualTo(backoff));
+  }
+}
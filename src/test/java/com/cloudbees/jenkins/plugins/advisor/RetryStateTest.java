@@ -0,0 +1,84 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import java.io.File;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static java.lang.String.format;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class RetryStateTest {
+
+  private static final String TEST_EMAIL = "test@acme.com";
+
+  @Rule
+  public RestartableJenkinsRule story = new RestartableJenkinsRule();
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(wireMockConfig());
+
+  @Test
+  public void survivesARestart() {
+    File bundle = new File("bundle.zip").getAbsoluteFile();
+    long nextAttempt = System.currentTimeMillis() + 3600000;
+    story.then(r -> {
+      assertThat(RetryState.load(), is(nullValue()));
+      new RetryState(bundle, 2, nextAttempt, "Response code was: 503").save();
+    });
+    story.then(r -> {
+      RetryState retry = RetryState.load();
+      assertThat(retry, is(notNullValue()));
+      assertThat(retry.getBundle(), is(bundle));
+      assertThat(retry.getAttempts(), is(2));
+      assertThat(retry.getNextAttempt().getTime(), is(nextAttempt));
+      assertThat(retry.getLastError(), is("Response code was: 503"));
+
+      RetryState.clear();
+      assertThat(RetryState.load(), is(nullValue()));
+    });
+  }
+
+  @Test
+  public void isRescheduledAfterARestart() {
+    story.then(r -> {
+      AdvisorGlobalConfiguration config = AdvisorGlobalConfiguration.getInstance();
+      config.setEmail(TEST_EMAIL);
+      config.setValid(true);
+      config.setAcceptToS(true);
+      config.save();
+      // the retry may be due while Jenkins is starting again
+      stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+      stubFor(post(urlEqualTo(uploadURL(r))).willReturn(aResponse().withStatus(200)));
+      // a piped bundle is generated again by the retry
+      new RetryState(null, 1, System.currentTimeMillis() + 2000, "Response code was: 503").save();
+    });
+    story.then(r -> {
+      // nothing triggers a run, only the retry saved before the restart
+      long giveUp = System.currentTimeMillis() + 60000;
+      while (RetryState.load() != null && System.currentTimeMillis() < giveUp) {
+        Thread.sleep(500);
+      }
+
+      verify(postRequestedFor(urlEqualTo(uploadURL(r))));
+      assertThat(RetryState.load(), is(nullValue()));
+    });
+  }
+
+  private static String uploadURL(JenkinsRule r) {
+    return format("/api/users/%s/upload/%s", TEST_EMAIL, r.getInstance().getLegacyInstanceId());
+  }
+}
@@ -0,0 +1,73 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class UploadProgressTest {
+
+  @Test
+  public void reportsPhases() {
+    UploadProgress progress = new UploadProgress();
+    assertThat(progress.getPhase(), is("starting"));
+
+    progress.startGeneration(3);
+    progress.startComponent(1, "Plugins");
+    assertThat(progress.getPhase(), is("generating"));
+    assertThat(progress.getComponentNumber(), is(2));
+    assertThat(progress.getComponentName(), is("Plugins"));
+
+    progress.endGeneration();
+    progress.startUpload(100);
+    assertThat(progress.getPhase(), is("uploading"));
+
+    progress.finish("done");
+    assertThat(progress.getPhase(), is("finished"));
+    assertThat(progress.getEtaMillis(), is(0L));
+    assertThat(progress.toJSON().getString("result"), is("done"));
+  }
+
+  @Test
+  public void countsBytesWrittenAndSent() throws Exception {
+    UploadProgress progress = new UploadProgress();
+    OutputStream out = progress.countWritten(new ByteArrayOutputStream());
+    out.write(new byte[42]);
+    out.write(1);
+    progress.startUpload(1000);
+    progress.onBytesSent(250);
+
+    assertThat(progress.getBytesWritten(), is(43L));
+    assertThat(progress.getBytesSent(), is(250L));
+    assertThat(progress.getTotalBytes(), is(1000L));
+  }
+
+  @Test
+  public void estimatesUploadTimeFromThroughput() throws Exception {
+    UploadProgress progress = new UploadProgress();
+    progress.startUpload(10_000_000);
+    progress.onBytesSent(0);
+    Thread.sleep(1100);
+    progress.onBytesSent(1_000_000);
+
+    assertThat(progress.getBytesPerSecond(), greaterThan(0L));
+    assertThat(progress.getEtaMillis(), greaterThan(0L));
+  }
+
+  @Test
+  public void generatorReportsComponents() throws Exception {
+    UploadProgress progress = new UploadProgress();
+    BundleGenerator generator = new BundleGenerator(BundleGeneratorTest.components()).withProgress(progress);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    generator.writeTo(out);
+
+    assertThat(progress.getComponentCount(), is(2));
+    assertThat(progress.getBytesWritten(), is((long) out.size()));
+    assertThat(progress.getPhase(), is("starting"));
+  }
+}
@@ -0,0 +1,61 @@
+package com.cloudbees.jenkins.plugins.advisor;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class UploadWindowsTest {
+
+  private static final String NIGHT = "# nightly\n* 1-4 * * *\n";
+
+  @Test
+  public void emptyMeansAnyTime() {
+    assertThat(UploadWindows.parse(null).isEmpty(), is(true));
+    assertThat(UploadWindows.parse("\n# none\n").isEmpty(), is(true));
+  }
+
+  @Test
+  public void containsMinutesOfWindow() {
+    UploadWindows windows = UploadWindows.parse(NIGHT);
+
+    assertThat(windows.contains(at(1, 0, 0)), is(true));
+    assertThat(windows.contains(at(4, 59, 30)), is(true));
+    assertThat(windows.contains(at(5, 0, 0)), is(false));
+  }
+
+  @Test
+  public void nextStartAndEnd() {
+    UploadWindows windows = UploadWindows.parse(NIGHT);
+
+    Calendar next = windows.nextStart(at(14, 30, 15));
+    assertThat(next.get(Calendar.DAY_OF_MONTH), is(at(14, 30, 15).get(Calendar.DAY_OF_MONTH) + 1));
+    assertThat(next.get(Calendar.HOUR_OF_DAY), is(1));
+    assertThat(next.get(Calendar.MINUTE), is(0));
+
+    Calendar end = windows.end(at(3, 10, 0));
+    assertThat(end.get(Calendar.HOUR_OF_DAY), is(5));
+    assertThat(end.get(Calendar.MINUTE), is(0));
+  }
+
+  @Test
+  public void alwaysOpenWindowHasNoEnd() {
+    assertThat(UploadWindows.parse("* * * * *").end(at(12, 0, 0)), is(nullValue()));
+  }
+
+  @Test
+  public void invalidLinesAreReportedAndIgnored() {
+    assertThat(UploadWindows.validate("* 1-4 * * *\nnot a window"), containsString("not a window"));
+    assertThat(UploadWindows.validate(NIGHT), is(nullValue()));
+    assertThat(UploadWindows.parse("not a window").isEmpty(), is(true));
+  }
+
+  private static Calendar at(int hour, int minute, int second) {
+    return new GregorianCalendar(2019, Calendar.MAY, 2, hour, minute, second);
+  }
+}
@@ -0,0 +1,38 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the resolution of the client settings. {@code resolveProperty} is private, so it is exercised through
+ * the accessors: a plain numeric property, and URIs which expand a {@code ${...}} placeholder and format arguments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdvisorClientConfigBenchmark {
+
+  public String username = "test@acme.com";
+  public String instanceId = "0123456789abcdef0123456789abcdef";
+
+  @Benchmark
+  public Integer uploadTimeout() {
+    return AdvisorClientConfig.insightsUploadTimeoutMilliseconds();
+  }
+
+  @Benchmark
+  public String healthURI() {
+    return AdvisorClientConfig.healthURI();
+  }
+
+  @Benchmark
+  public String apiUploadURI() {
+    return AdvisorClientConfig.apiUploadURI(username, instanceId, null);
+  }
+}
@@ -38,4 +38,27 @@ public class AdvisorClientConfigTest {
 
         System.setProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorUploadIdleTimeoutMinutes", Integer.toString(DEFAULT_UPLOAD_IDLE_TIMEOUT_MINUTES));
     }
+
+    @Test
+    public void resumableUploadChunkSize() {
+        String key = "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorResumableUploadChunkSizeKilobytes";
+        try {
+            assertThat(AdvisorClientConfig.resumableUploadChunkSize(), is(0));
+
+            System.setProperty(key, "256");
+            assertThat(AdvisorClientConfig.resumableUploadChunkSize(), is(256 * 1024));
+
+            System.setProperty(key, "4194304");
+            assertThat(AdvisorClientConfig.resumableUploadChunkSize(),
+                is(AdvisorClientConfig.MAX_RESUMABLE_UPLOAD_CHUNK_SIZE_KILOBYTES * 1024));
+
+            System.setProperty(key, "-1");
+            assertThat(AdvisorClientConfig.resumableUploadChunkSize(), is(0));
+
+            System.setProperty(key, "1MB");
+            assertThat(AdvisorClientConfig.resumableUploadChunkSize(), is(0));
+        } finally {
+            System.clearProperty(key);
+        }
+    }
 }
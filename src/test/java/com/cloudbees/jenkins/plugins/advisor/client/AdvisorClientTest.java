@@ -5,20 +5,35 @@ import com.cloudbees.jenkins.plugins.advisor.client.model.ClientResponse;
 import com.cloudbees.jenkins.plugins.advisor.client.model.ClientUploadRequest;
 import com.cloudbees.jenkins.plugins.advisor.utils.EmailUtil;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static java.lang.String.format;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AdvisorClientTest {
 
@@ -62,6 +77,83 @@ public class AdvisorClientTest {
     assertThat(response.getCode(), is(200));
   }
 
+  @Test
+  public void uploadFileIsStreamedWithContentLength() throws Exception {
+    stubHealth();
+    stubUpload();
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    ClientResponse response = subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+    assertThat(response.getCode(), is(200));
+    LoggedRequest request = findAll(postRequestedFor(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID)))).get(0);
+    assertThat(request.getHeader("Content-Length"), is(Integer.toString(request.getBody().length)));
+    assertThat(request.getBody().length > bundle.length(), is(true));
+  }
+
+  @Test
+  public void uploadReportsBytesSent() throws Exception {
+    stubHealth();
+    stubUpload();
+
+    AtomicLong sent = new AtomicLong();
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    ClientResponse response = subject.withUploadListener(sent::set)
+        .uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+    assertThat(response.getCode(), is(200));
+    LoggedRequest request = findAll(postRequestedFor(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID)))).get(0);
+    assertThat(sent.get(), is((long) request.getBody().length));
+  }
+
+  @Test
+  public void uploadStreamedPayload() throws Exception {
+    stubHealth();
+    stubUpload();
+
+    byte[] content = "streamed bundle content".getBytes(StandardCharsets.UTF_8);
+    ClientResponse response = subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, "bundle.zip",
+        out -> out.write(content), null, TEST_PLUGIN_VERSION));
+
+    assertThat(response.getCode(), is(200));
+    LoggedRequest request = findAll(postRequestedFor(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID)))).get(0);
+    assertThat(request.getBodyAsString(), containsString("filename=\"bundle.zip\""));
+    assertThat(request.getBodyAsString(), containsString("streamed bundle content"));
+  }
+
+  @Test
+  public void uploadFileWithDeflateCodec() throws Exception {
+    stubHealth();
+    stubUpload();
+    System.setProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorBundleCodec", "deflate");
+    try {
+      File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+      ClientResponse response = subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+      assertThat(response.getCode(), is(200));
+      LoggedRequest request = findAll(postRequestedFor(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID)))).get(0);
+      assertThat(request.getHeader("X-ADVISOR-BUNDLE-CODEC"), is("deflate"));
+      assertThat(request.getHeader("Transfer-Encoding"), is("chunked"));
+    } finally {
+      System.clearProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorBundleCodec");
+    }
+  }
+
+  @Test
+  public void uploadUsesTheCodecOfTheClient() throws Exception {
+    stubHealth();
+    stubUpload();
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    // the configured codec is identity
+    ClientResponse response = subject.withCodec(new BundleCodec(BundleCodec.DEFLATE, 6, null))
+        .uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+    assertThat(response.getCode(), is(200));
+    LoggedRequest request = findAll(postRequestedFor(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID)))).get(0);
+    assertThat(request.getHeader("X-ADVISOR-BUNDLE-CODEC"), is("deflate"));
+  }
+
   @Test
   public void uploadFileWithCC() throws Exception {
     stubHealth();
@@ -85,6 +177,171 @@ public class AdvisorClientTest {
     assertThat(response.getCode(), is(200));
   }
 
+  @Test
+  public void uploadSkipsTheHealthCheckAfterARecentSuccess() throws Exception {
+    stubHealth();
+    stubUpload();
+    System.setProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorHealthCheckMaxAgeSeconds", "60");
+    try {
+      subject.doCheckHealth();
+      File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+      ClientResponse response = subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+      assertThat(response.getCode(), is(200));
+      verify(1, getRequestedFor(urlEqualTo("/api/health")));
+    } finally {
+      System.clearProperty("com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorHealthCheckMaxAgeSeconds");
+    }
+  }
+
+  @Test
+  public void uploadReleasesItsConnections() throws Exception {
+    stubHealth();
+    stubUpload();
+    ConnectionManager connections = ConnectionManager.get();
+    long released = connections.getReleased();
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+    // the health check and the upload both hand their connection back for reuse
+    assertThat(connections.getReleased(), is(released + 2));
+  }
+
+  @Test
+  public void uploadReturnsErrorResponses() throws Exception {
+    stubHealth();
+    stubFor(post(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID)))
+        .willReturn(aResponse()
+            .withStatus(413)
+            .withBody("Bundle too large")));
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    ClientResponse response = subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+    assertThat(response.getCode(), is(413));
+    assertThat(response.getMessage(), is("Bundle too large"));
+  }
+
+  @Test
+  public void checkHealthAsync() throws Exception {
+    stubHealth();
+
+    assertThat(subject.checkHealthAsync().get(10, TimeUnit.SECONDS), is(AdvisorClient.HEALTH_SUCCESS));
+  }
+
+  @Test
+  public void callsMissingTheirDeadlineAreAborted() throws Exception {
+    stubFor(get(urlEqualTo("/api/health"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withFixedDelay(5000)));
+    ConnectionManager connections = ConnectionManager.get();
+    long discarded = connections.getDiscarded();
+
+    CompletableFuture<String> health = ClientExecutor.withTimeout(subject.checkHealthAsync(), 200, TimeUnit.MILLISECONDS);
+    try {
+      health.get();
+      fail("The health check should have timed out");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    }
+    // the call is aborted by the thread enforcing the deadline, possibly after the future failed
+    long giveUp = System.currentTimeMillis() + 5000;
+    while (connections.getDiscarded() == discarded && System.currentTimeMillis() < giveUp) {
+      Thread.sleep(10);
+    }
+    assertThat(connections.getDiscarded(), is(discarded + 1));
+
+    // the client stays aborted
+    try {
+      subject.doCheckHealth();
+      fail("The client should have been aborted");
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage(), containsString("aborted"));
+    }
+  }
+
+  @Test
+  public void blockingCallsReportTheFailureOfTheCall() throws Exception {
+    stubFor(get(urlEqualTo(format("/api/test/emails/%s", TEST_EMAIL)))
+        .willReturn(aResponse()
+            .withStatus(404)));
+
+    try {
+      subject.doTestEmail();
+      fail("The test email should have failed");
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage(), containsString("404"));
+    }
+  }
+
+  @Test
+  public void failedCallsCarryTheStatusOfTheResponse() throws Exception {
+    stubFor(get(urlEqualTo("/api/health"))
+        .willReturn(aResponse()
+            .withStatus(503)));
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    try {
+      subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+      fail("The upload should have failed on the health check");
+    } catch (RuntimeException e) {
+      assertThat(HttpStatusException.statusOf(e), is(503));
+    }
+    assertThat(HttpStatusException.statusOf(new IllegalStateException("no response")), is(0));
+  }
+
+  @Test
+  public void healthChecksGiveUpAfterTheirReadTimeout() throws Exception {
+    stubFor(get(urlEqualTo("/api/health"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withFixedDelay(5000)));
+    String key = "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorHealthCheckReadTimeoutSeconds";
+    System.setProperty(key, "1");
+    long start = System.nanoTime();
+    try {
+      subject.doCheckHealth();
+      fail("The health check should have timed out");
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage(), containsString("SocketTimeoutException"));
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    } finally {
+      System.clearProperty(key);
+    }
+  }
+
+  @Test
+  public void noCallIsMadePastTheDeadline() throws Exception {
+    stubHealth();
+    stubUpload();
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    try {
+      subject.withDeadline(System.currentTimeMillis() - 1)
+          .uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+      fail("The upload should have been refused");
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage(), containsString("deadline"));
+    }
+    verify(0, getRequestedFor(urlEqualTo("/api/health")));
+    verify(0, postRequestedFor(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID))));
+  }
+
+  @Test
+  public void uploadsMeasureTheBandwidth() throws Exception {
+    stubHealth();
+    stubUpload();
+    BandwidthEstimator bandwidth = BandwidthEstimator.get();
+    long samples = bandwidth.getSamples();
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    subject.uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, TEST_PLUGIN_VERSION));
+
+    assertThat(bandwidth.getSamples(), is(samples + 1));
+  }
+
   private void stubHealth() {
     stubFor(get(urlEqualTo("/api/health"))
         //.withHeader("Content-Type", WireMock.equalTo("application/json"))
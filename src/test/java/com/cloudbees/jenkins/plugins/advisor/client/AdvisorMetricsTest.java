@@ -0,0 +1,155 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import com.cloudbees.jenkins.plugins.advisor.client.model.AccountCredentials;
+import com.cloudbees.jenkins.plugins.advisor.client.model.ClientResponse;
+import com.cloudbees.jenkins.plugins.advisor.client.model.ClientUploadRequest;
+import com.github.tomakehurst.wiremock.http.Fault;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.put;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static java.lang.String.format;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AdvisorMetricsTest {
+
+  private static final String TEST_EMAIL = "test@acme.com";
+  private static final String TEST_INSTANCE_ID = "12345";
+  private static final String CHUNK_SIZE_KEY =
+      "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorResumableUploadChunkSizeKilobytes";
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(wireMockConfig());
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void histogramPercentiles() {
+    AdvisorMetrics.Histogram histogram = new AdvisorMetrics.Histogram();
+    assertThat(histogram.percentile(0.5), is(0L));
+
+    for (int i = 0; i < 90; i++) {
+      histogram.record(20);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(4000);
+    }
+
+    assertThat(histogram.percentile(0.50), is(25L));
+    assertThat(histogram.percentile(0.95), is(4000L));
+    assertThat(histogram.max(), is(4000L));
+    assertThat(histogram.toJSON().getLong("count"), is(100L));
+  }
+
+  @Test
+  public void failuresAreCountedByStatus() {
+    AdvisorMetrics metrics = new AdvisorMetrics();
+    metrics.recordHealthCheck(5, 503);
+    metrics.recordUploadFailure(100, 10, 0);
+    metrics.recordUploadFailure(100, 10, 503);
+
+    assertThat(metrics.getFailuresByStatus().get("503"), is(2L));
+    assertThat(metrics.getFailuresByStatus().get(AdvisorMetrics.CONNECTION_FAILURE), is(1L));
+    assertThat(metrics.getHealthChecksFailed(), is(1L));
+    assertThat(metrics.getUploadsFailed(), is(2L));
+  }
+
+  @Test
+  public void uploadIsRecorded() throws Exception {
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+    stubFor(post(urlEqualTo(format("/api/users/%s/upload/%s", TEST_EMAIL, TEST_INSTANCE_ID)))
+        .willReturn(aResponse().withStatus(200)));
+    AdvisorMetrics metrics = AdvisorMetrics.get();
+    long uploads = metrics.getUploadsSucceeded();
+    long healthChecks = metrics.getHealthChecksSucceeded();
+    long bytesSent = metrics.getBytesSent();
+
+    File bundle = new File(getClass().getResource("/bundle.zip").getFile());
+    ClientResponse response = new AdvisorClient(new AccountCredentials(TEST_EMAIL))
+        .uploadFile(new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, "2.9"));
+
+    assertThat(response.getCode(), is(200));
+    assertThat(metrics.getUploadsSucceeded(), is(uploads + 1));
+    assertThat(metrics.getHealthChecksSucceeded(), is(healthChecks + 1));
+    assertThat(metrics.getBytesSent() - bytesSent, greaterThan(bundle.length()));
+    JSONObject json = metrics.toJSON();
+    assertThat(json.getJSONObject("counters").getLong("uploadsSucceeded"), is(metrics.getUploadsSucceeded()));
+  }
+
+  @Test
+  public void testEmailWithoutResponseIsRecordedAsAFailure() {
+    stubFor(get(urlEqualTo(format("/api/test/emails/%s", TEST_EMAIL)))
+        .willReturn(aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER)));
+    AdvisorMetrics metrics = AdvisorMetrics.get();
+    Long before = metrics.getFailuresByStatus().get(AdvisorMetrics.CONNECTION_FAILURE);
+
+    try {
+      new AdvisorClient(new AccountCredentials(TEST_EMAIL)).doTestEmail();
+      fail("The test email should have failed");
+    } catch (RuntimeException e) {
+      // expected
+    }
+
+    assertThat(metrics.getFailuresByStatus().get(AdvisorMetrics.CONNECTION_FAILURE), is(before == null ? 1L : before + 1));
+  }
+
+  @Test
+  public void resumedUploadOnlyCountsTheBytesSentAfterTheOffset() throws Exception {
+    String chunks = format("/api/users/%s/upload/%s/chunks/[^/]+", TEST_EMAIL, TEST_INSTANCE_ID);
+    stubFor(get(urlEqualTo("/api/health")).willReturn(aResponse().withStatus(200)));
+    stubFor(put(urlMatching(chunks)).willReturn(aResponse().withStatus(200)));
+    stubFor(put(urlMatching(chunks)).withHeader("Content-Range", equalTo("bytes 4096-8191/10000"))
+        .willReturn(aResponse().withStatus(502)));
+    stubFor(post(urlMatching(chunks + "/complete")).willReturn(aResponse().withStatus(200)));
+    File bundle = tmp.newFile("bundle.zip");
+    Files.write(bundle.toPath(), new byte[10000]);
+    AdvisorMetrics metrics = AdvisorMetrics.get();
+    ClientUploadRequest request = new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, "2.9");
+
+    System.setProperty(CHUNK_SIZE_KEY, "4");
+    try {
+      try {
+        new AdvisorClient(new AccountCredentials(TEST_EMAIL)).uploadFile(request);
+        fail("The upload should have failed on the second chunk");
+      } catch (RuntimeException e) {
+        // the first chunk was acknowledged
+      }
+      stubFor(put(urlMatching(chunks)).withHeader("Content-Range", equalTo("bytes 4096-8191/10000"))
+          .willReturn(aResponse().withStatus(200)));
+      long bytesSent = metrics.getBytesSent();
+
+      ClientResponse response = new AdvisorClient(new AccountCredentials(TEST_EMAIL)).uploadFile(request);
+
+      assertThat(response.getCode(), is(200));
+      assertThat(metrics.getBytesSent() - bytesSent, is(10000L - 4096L));
+    } finally {
+      System.clearProperty(CHUNK_SIZE_KEY);
+    }
+  }
+
+  @Test
+  public void registeredOverJmx() throws Exception {
+    AdvisorMetrics.get();
+    assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(AdvisorMetrics.OBJECT_NAME)), is(true));
+  }
+}
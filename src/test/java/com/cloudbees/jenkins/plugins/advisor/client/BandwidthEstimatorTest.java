@@ -0,0 +1,67 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class BandwidthEstimatorTest {
+
+  private static final long MB = 1024 * 1024;
+
+  private final BandwidthEstimator subject = new BandwidthEstimator();
+
+  @Test
+  public void theDefaultBandwidthIsUsedUntilAnUploadIsMeasured() {
+    assertThat(subject.getSamples(), is(0L));
+    assertThat(subject.getBytesPerSecond(), is(64 * 1024L));
+    // 16 seconds at 64 KB/s, times 4
+    assertThat(subject.transferMillis(MB), is(TimeUnit.SECONDS.toMillis(64)));
+  }
+
+  @Test
+  public void theFirstUploadSetsTheEstimate() {
+    subject.record(10 * MB, 10000);
+
+    assertThat(subject.getSamples(), is(1L));
+    assertThat(subject.getBytesPerSecond(), is(MB));
+  }
+
+  @Test
+  public void laterUploadsAreAveraged() {
+    subject.record(10 * MB, 10000);
+    subject.record(20 * MB, 10000);
+
+    // 30% of 2 MB/s and 70% of 1 MB/s
+    assertThat(subject.getBytesPerSecond(), is(1363148L));
+  }
+
+  @Test
+  public void smallUploadsAreIgnored() {
+    subject.record(BandwidthEstimator.MIN_SAMPLE_BYTES - 1, 1);
+
+    assertThat(subject.getSamples(), is(0L));
+  }
+
+  @Test
+  public void theTimeoutFollowsTheSizeOfTheBundle() {
+    subject.record(10 * MB, 10000);
+
+    assertThat(subject.uploadTimeoutMillis(5 * MB), is(BandwidthEstimator.MIN_TIMEOUT_MILLIS));
+    assertThat(subject.uploadTimeoutMillis(2048 * MB), is(TimeUnit.SECONDS.toMillis(2048 * 4)));
+  }
+
+  @Test
+  public void aSafetyFactorOfZeroDisablesTheTimeouts() {
+    String key = "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorUploadTimeoutSafetyFactor";
+    System.setProperty(key, "0");
+    try {
+      assertThat(subject.uploadTimeoutMillis(2048 * MB), is(0L));
+      assertThat(subject.transferMillis(MB), is(0L));
+    } finally {
+      System.clearProperty(key);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares the CPU time of the bundle codecs with the number of bytes they send. The payload is a zip of log-like
+ * entries stored without compression, as generated when a codec is active. The size of the encoded payload is
+ * reported in bytes by the {@code bytesSent} secondary result; run with {@code -Dbenchmark.profilers=gc} to add allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BundleCodecBenchmark {
+
+  @Param({"identity", "deflate-1", "deflate-6", "deflate-9", "deflate-6-dictionary"})
+  public String codec;
+
+  @Param({"16777216"})
+  public int payloadSize;
+
+  private byte[] payload;
+  private BundleCodec bundleCodec;
+
+  /**
+   * Reported as is rather than as a rate, since every operation encodes the same payload.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Output {
+    public long bytesSent;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    payload = storedZip(payloadSize);
+    String[] parts = codec.split("-");
+    if (BundleCodec.IDENTITY.equals(parts[0])) {
+      bundleCodec = new BundleCodec(BundleCodec.IDENTITY, Deflater.NO_COMPRESSION, null);
+    } else {
+      // a dictionary made of an earlier bundle, truncated to the deflate window
+      byte[] dictionary = parts.length > 2
+          ? Arrays.copyOfRange(storedZip(BundleCodec.MAX_DICTIONARY_SIZE * 4), 0, BundleCodec.MAX_DICTIONARY_SIZE)
+          : null;
+      bundleCodec = new BundleCodec(BundleCodec.DEFLATE, Integer.parseInt(parts[1]), dictionary);
+    }
+  }
+
+  @Benchmark
+  public long encode(Output output) throws IOException {
+    CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+    bundleCodec.encode(o -> o.write(payload)).writeTo(out);
+    output.bytesSent = out.getByteCount();
+    return output.bytesSent;
+  }
+
+  private static byte[] storedZip(int size) throws IOException {
+    Random random = new Random(size);
+    String[] levels = {"INFO", "FINE", "WARNING", "SEVERE"};
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 1024);
+    try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+      zip.setLevel(Deflater.NO_COMPRESSION);
+      int entry = 0;
+      while (bytes.size() < size) {
+        zip.putNextEntry(new ZipEntry("nodes/slave/agent-" + entry++ + "/logs/agent.log"));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+          text.append("2019-05-02 10:").append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50))
+              .append(" [id=").append(random.nextInt(1000)).append("]\t").append(levels[random.nextInt(levels.length)])
+              .append("\thudson.model.Run#execute: job-").append(random.nextInt(200)).append(" #")
+              .append(random.nextInt(5000)).append(" completed: SUCCESS\n");
+        }
+        zip.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,101 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class BundleCodecTest {
+
+  private static final String CODEC_PROPERTY = "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorBundleCodec";
+
+  private static final byte[] CONTENT = repeat("2019-05-02 10:15:32 [id=42]\tINFO\thudson.model.Run#execute: job #1 completed: SUCCESS\n", 200);
+
+  @After
+  public void clearProperties() {
+    System.clearProperty(CODEC_PROPERTY);
+  }
+
+  @Test
+  public void identityLeavesPayloadUnchanged() {
+    PayloadWriter payload = out -> out.write(CONTENT);
+    BundleCodec codec = BundleCodec.fromConfig();
+
+    assertThat(codec.isIdentity(), is(true));
+    assertThat(codec.encode(payload), sameInstance(payload));
+  }
+
+  @Test
+  public void unknownCodecFallsBackToIdentity() {
+    System.setProperty(CODEC_PROPERTY, "brotli");
+
+    assertThat(BundleCodec.fromConfig().isIdentity(), is(true));
+  }
+
+  @Test
+  public void deflateRoundTrip() throws Exception {
+    System.setProperty(CODEC_PROPERTY, "deflate");
+    BundleCodec codec = BundleCodec.fromConfig();
+
+    byte[] encoded = encode(codec);
+
+    assertThat(codec.getName(), is(BundleCodec.DEFLATE));
+    assertThat(codec.getDictionaryId(), is(nullValue()));
+    assertThat(encoded.length, lessThan(CONTENT.length / 10));
+    assertThat(inflate(encoded, null), is(CONTENT));
+  }
+
+  @Test
+  public void dictionaryRoundTrip() throws Exception {
+    byte[] dictionary = repeat("hudson.model.Run#execute: job completed: SUCCESS\n", 10);
+    BundleCodec withDictionary = new BundleCodec(BundleCodec.DEFLATE, Deflater.BEST_COMPRESSION, dictionary);
+    BundleCodec withoutDictionary = new BundleCodec(BundleCodec.DEFLATE, Deflater.BEST_COMPRESSION, null);
+
+    byte[] encoded = encode(withDictionary);
+
+    assertThat(encoded.length, lessThan(encode(withoutDictionary).length + 1));
+    assertThat(inflate(encoded, dictionary), is(CONTENT));
+    assertThat(withDictionary.getDictionaryId().length(), is(8));
+  }
+
+  private static byte[] encode(BundleCodec codec) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.encode(o -> o.write(CONTENT)).writeTo(out);
+    return out.toByteArray();
+  }
+
+  private static byte[] inflate(byte[] encoded, byte[] dictionary) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    inflater.setInput(encoded);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    while (!inflater.finished()) {
+      int n = inflater.inflate(buffer);
+      if (n == 0 && inflater.needsDictionary()) {
+        inflater.setDictionary(dictionary);
+      }
+      out.write(buffer, 0, n);
+    }
+    inflater.end();
+    return out.toByteArray();
+  }
+
+  private static byte[] repeat(String line, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(line);
+    }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,142 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CircuitBreakerTest {
+
+  private final AtomicLong now = new AtomicLong(1000);
+  private final CircuitBreaker breaker = new CircuitBreaker(3, 60000, now::get);
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    breaker.record(503);
+    breaker.record(0);
+    assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    assertThat(breaker.allowRequest(), is(true));
+
+    breaker.record(500);
+    assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    assertThat(breaker.allowRequest(), is(false));
+    assertThat(breaker.isCallPermitted(), is(false));
+    assertThat(breaker.getOpenedAt().getTime(), is(1000L));
+    assertThat(breaker.getNextProbe().getTime(), is(61000L));
+    assertThat(breaker.getLastFailure(), is("Response code 500"));
+  }
+
+  @Test
+  public void successResetsTheFailures() {
+    breaker.record(503);
+    breaker.record(503);
+    breaker.record(200);
+    breaker.record(503);
+    breaker.record(503);
+
+    assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    assertThat(breaker.getConsecutiveFailures(), is(2));
+  }
+
+  @Test
+  public void rejectedRequestsDoNotCount() {
+    for (int i = 0; i < 5; i++) {
+      breaker.record(401);
+      breaker.record(404);
+    }
+
+    assertThat(breaker.isClosed(), is(true));
+    assertThat(breaker.getLastFailure(), nullValue());
+  }
+
+  @Test
+  public void probesHalfOpenOnceTheDelayElapsed() {
+    open();
+    now.addAndGet(60000);
+
+    assertThat(breaker.isCallPermitted(), is(true));
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+    // a single probe at a time
+    assertThat(breaker.allowRequest(), is(false));
+
+    breaker.recordSuccess();
+    assertThat(breaker.isClosed(), is(true));
+    assertThat(breaker.getNextProbe(), nullValue());
+    assertThat(breaker.allowRequest(), is(true));
+  }
+
+  @Test
+  public void failedProbeOpensAgain() {
+    open();
+    now.addAndGet(60000);
+    assertThat(breaker.allowRequest(), is(true));
+
+    breaker.record(0);
+    assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    assertThat(breaker.getOpenedAt().getTime(), is(1000L));
+    assertThat(breaker.getMillisToNextProbe(), is(60000L));
+    assertThat(breaker.allowRequest(), is(false));
+  }
+
+  @Test
+  public void probeNowLetsTheNextCallThrough() {
+    open();
+    assertThat(breaker.allowRequest(), is(false));
+
+    breaker.probeNow();
+    assertThat(breaker.getNextProbe(), notNullValue());
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+  }
+
+  @Test
+  public void zeroThresholdNeverOpens() {
+    CircuitBreaker disabled = new CircuitBreaker(0, 60000, now::get);
+    for (int i = 0; i < 10; i++) {
+      disabled.record(503);
+    }
+
+    assertThat(disabled.isClosed(), is(true));
+    assertThat(disabled.allowRequest(), is(true));
+  }
+
+  @Test
+  public void resetClosesTheCircuit() {
+    open();
+
+    breaker.reset();
+
+    assertThat(breaker.isClosed(), is(true));
+    assertThat(breaker.getConsecutiveFailures(), is(0));
+    assertThat(breaker.getLastFailure(), nullValue());
+    assertThat(breaker.getNextProbe(), nullValue());
+    assertThat(breaker.allowRequest(), is(true));
+  }
+
+  @Test
+  public void theThresholdIsReadWhenAFailureIsRecorded() {
+    String key = "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorCircuitBreakerFailureThreshold";
+    CircuitBreaker configured = CircuitBreaker.get();
+    configured.reset();
+    System.setProperty(key, "1");
+    try {
+      configured.record(503);
+      assertThat(configured.getState(), is(CircuitBreaker.State.OPEN));
+    } finally {
+      System.clearProperty(key);
+      configured.reset();
+    }
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      breaker.record(503);
+    }
+    assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+  }
+}
@@ -0,0 +1,88 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClientExecutorTest {
+
+  @Test
+  public void callsRunOnTheIOThreads() throws Exception {
+    CompletableFuture<String> call = ClientExecutor.supply(() -> Thread.currentThread().getName(), () -> { });
+
+    assertTrue(call.get(10, TimeUnit.SECONDS).startsWith("Advisor client I/O"));
+  }
+
+  @Test
+  public void failuresCompleteTheFuture() throws Exception {
+    CompletableFuture<String> call = ClientExecutor.supply(() -> {
+      throw new IllegalStateException("Service unavailable");
+    }, () -> { });
+
+    try {
+      call.get(10, TimeUnit.SECONDS);
+      fail("The call should have failed");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+  }
+
+  @Test
+  public void missedDeadlinesAbortTheCall() throws Exception {
+    CountDownLatch aborted = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    CompletableFuture<String> call = ClientExecutor.withTimeout(ClientExecutor.supply(() -> {
+      try {
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+      return "late";
+    }, aborted::countDown), 100, TimeUnit.MILLISECONDS);
+
+    try {
+      call.get(10, TimeUnit.SECONDS);
+      fail("The call should have timed out");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    }
+    assertTrue(aborted.await(10, TimeUnit.SECONDS));
+    assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void cancellingAbortsTheCall() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch aborted = new CountDownLatch(1);
+    CompletableFuture<String> call = ClientExecutor.supply(() -> {
+      started.countDown();
+      Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+      return "late";
+    }, aborted::countDown);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    call.cancel(true);
+
+    assertTrue(aborted.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void callsCompletingInTimeAreNotAborted() throws Exception {
+    CountDownLatch aborted = new CountDownLatch(1);
+    CompletableFuture<String> call = ClientExecutor.withTimeout(ClientExecutor.supply(() -> "on time",
+        aborted::countDown), 10, TimeUnit.SECONDS);
+
+    assertThat(call.get(10, TimeUnit.SECONDS), is("on time"));
+    assertThat(aborted.getCount(), is(1L));
+  }
+}
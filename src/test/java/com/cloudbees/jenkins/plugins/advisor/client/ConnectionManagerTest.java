@@ -0,0 +1,45 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import hudson.ProxyConfiguration;
+import org.junit.Test;
+
+import java.net.Proxy;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ConnectionManagerTest {
+
+  private final ConnectionManager connections = new ConnectionManager();
+
+  @Test
+  public void noProxyWithoutConfiguration() {
+    assertThat(connections.proxyFor(null, "insights.cloudbees.com"), is(Proxy.NO_PROXY));
+  }
+
+  @Test
+  public void proxyIsCachedPerHost() {
+    ProxyConfiguration configuration = new ProxyConfiguration("proxy.acme.com", 3128);
+
+    Proxy proxy = connections.proxyFor(configuration, "insights.cloudbees.com");
+
+    assertThat(connections.proxyFor(configuration, "insights.cloudbees.com"), sameInstance(proxy));
+    assertThat(connections.getProxyLookups(), is(1L));
+    assertThat(connections.getProxyCacheHits(), is(1L));
+    connections.proxyFor(configuration, "other.cloudbees.com");
+    assertThat(connections.getProxyLookups(), is(2L));
+  }
+
+  @Test
+  public void newProxyConfigurationClearsTheCache() {
+    Proxy proxy = connections.proxyFor(new ProxyConfiguration("proxy.acme.com", 3128), "insights.cloudbees.com");
+
+    Proxy changed = connections.proxyFor(new ProxyConfiguration("proxy2.acme.com", 3128), "insights.cloudbees.com");
+
+    assertThat(changed, not(sameInstance(proxy)));
+    assertThat(connections.getProxyLookups(), is(2L));
+    assertThat(connections.getProxyCacheHits(), is(0L));
+  }
+}
@@ -0,0 +1,110 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import com.cloudbees.jenkins.plugins.advisor.client.model.ClientResponse;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of sending a file through {@link MultipartConnection} to a local HTTP server that discards the
+ * body. The smallest transfer buffer, 8 KiB, comes closest to the copy loop used before the channel based transfer
+ * path.
+ * Run with {@code -Dbenchmark.profilers=gc,stack} to compare allocation and time spent in socket writes.
+ * {@link #framing()} sends a tiny streamed part, so that its time is dominated by the multipart framing and the
+ * request round trip rather than by the copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MultipartConnectionBenchmark {
+
+  @Param({"8192", "262144"})
+  public int transferBufferSize;
+
+  @Param({"67108864"})
+  public int fileSize;
+
+  private static final byte[] SMALL_PAYLOAD = "small part".getBytes(StandardCharsets.UTF_8);
+
+  private HttpServer server;
+  private String url;
+  private File file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/upload", exchange -> {
+      byte[] buffer = new byte[64 * 1024];
+      try (InputStream in = exchange.getRequestBody()) {
+        while (in.read(buffer) != -1) {
+          // discard
+        }
+      }
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/upload";
+
+    file = File.createTempFile("advisor-benchmark", ".zip");
+    byte[] chunk = new byte[1024 * 1024];
+    new Random(42).nextBytes(chunk);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      for (int written = 0; written < fileSize; written += chunk.length) {
+        raf.write(chunk, 0, Math.min(chunk.length, fileSize - written));
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.stop(0);
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  @Benchmark
+  public ClientResponse fixedLengthUpload() throws IOException {
+    MultipartConnection multipart = new MultipartConnection(url, StandardCharsets.UTF_8);
+    multipart.setTransferBufferSize(transferBufferSize);
+    multipart.connect(multipart.getContentLength("file", file));
+    multipart.addFilePart("file", file);
+    return multipart.finish();
+  }
+
+  @Benchmark
+  public ClientResponse chunkedUpload() throws IOException {
+    MultipartConnection multipart = new MultipartConnection(url, StandardCharsets.UTF_8);
+    multipart.setTransferBufferSize(transferBufferSize);
+    multipart.connect();
+    multipart.addFilePart("file", file);
+    return multipart.finish();
+  }
+
+  @Benchmark
+  public ClientResponse framing() throws IOException {
+    MultipartConnection multipart = new MultipartConnection(url, StandardCharsets.UTF_8);
+    multipart.setTransferBufferSize(transferBufferSize);
+    multipart.connect();
+    multipart.addStreamPart("file", "bundle.zip", out -> out.write(SMALL_PAYLOAD));
+    return multipart.finish();
+  }
+}
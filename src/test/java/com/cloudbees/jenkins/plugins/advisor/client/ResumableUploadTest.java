@@ -0,0 +1,153 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import com.cloudbees.jenkins.plugins.advisor.client.model.ClientResponse;
+import com.cloudbees.jenkins.plugins.advisor.client.model.ClientUploadRequest;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.put;
+import static com.github.tomakehurst.wiremock.client.WireMock.putRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static java.lang.String.format;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ResumableUploadTest {
+
+  private static final String TEST_EMAIL = "test@acme.com";
+  private static final String TEST_INSTANCE_ID = "12345";
+  private static final int CHUNK_SIZE = 4096;
+  private static final String CHUNKS_URL = format("/api/users/%s/upload/%s/chunks/[^/]+", TEST_EMAIL, TEST_INSTANCE_ID);
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(wireMockConfig());
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void uploadsAllChunksThenCompletes() throws Exception {
+    File bundle = createBundle(10000);
+    stubFor(put(urlMatching(CHUNKS_URL)).willReturn(aResponse().withStatus(200)));
+    stubFor(post(urlMatching(CHUNKS_URL + "/complete")).willReturn(aResponse().withStatus(200)));
+
+    ClientResponse response = upload(bundle);
+
+    assertThat(response.getCode(), is(200));
+    verify(3, putRequestedFor(urlMatching(CHUNKS_URL)));
+    verify(putRequestedFor(urlMatching(CHUNKS_URL)).withHeader("Content-Range", equalTo("bytes 8192-9999/10000")));
+    verify(postRequestedFor(urlMatching(CHUNKS_URL + "/complete")).withHeader("X-ADVISOR-BUNDLE-NAME", equalTo(bundle.getName())));
+    assertThat(ResumableUpload.checkpointFile(bundle).exists(), is(false));
+  }
+
+  @Test
+  public void resumesFromLastAcknowledgedChunk() throws Exception {
+    File bundle = createBundle(10000);
+    stubFor(put(urlMatching(CHUNKS_URL)).willReturn(aResponse().withStatus(200)));
+    stubFor(put(urlMatching(CHUNKS_URL)).withHeader("Content-Range", equalTo("bytes 4096-8191/10000"))
+        .willReturn(aResponse().withStatus(502)));
+
+    try {
+      upload(bundle);
+      fail("The upload should have failed on the second chunk");
+    } catch (IOException e) {
+      // expected
+    }
+    assertThat(ResumableUpload.checkpointFile(bundle).exists(), is(true));
+    assertThat(ResumableUpload.findPending(tmp.getRoot()).size(), is(1));
+
+    wireMockRule.resetAll();
+    stubFor(put(urlMatching(CHUNKS_URL)).willReturn(aResponse().withStatus(200)));
+    stubFor(post(urlMatching(CHUNKS_URL + "/complete")).willReturn(aResponse().withStatus(200)));
+
+    ClientResponse response = upload(bundle);
+
+    assertThat(response.getCode(), is(200));
+    verify(0, putRequestedFor(urlMatching(CHUNKS_URL)).withHeader("Content-Range", equalTo("bytes 0-4095/10000")));
+    verify(putRequestedFor(urlMatching(CHUNKS_URL)).withHeader("Content-Range", equalTo("bytes 4096-8191/10000")));
+    verify(putRequestedFor(urlMatching(CHUNKS_URL)).withHeader("Content-Range", equalTo("bytes 8192-9999/10000")));
+    assertThat(ResumableUpload.findPending(tmp.getRoot()).size(), is(0));
+  }
+
+  @Test
+  public void rejectedResumeStartsOver() throws Exception {
+    File bundle = createBundle(10000);
+    stubFor(put(urlMatching(CHUNKS_URL)).willReturn(aResponse().withStatus(200)));
+    stubFor(put(urlMatching(CHUNKS_URL)).withHeader("Content-Range", equalTo("bytes 4096-8191/10000"))
+        .willReturn(aResponse().withStatus(502)));
+    try {
+      upload(bundle);
+      fail("The upload should have failed on the second chunk");
+    } catch (IOException e) {
+      // expected
+    }
+    String staleId = uploadId(bundle);
+
+    wireMockRule.resetAll();
+    stubFor(put(urlMatching(CHUNKS_URL)).willReturn(aResponse().withStatus(200)));
+    stubFor(post(urlMatching(CHUNKS_URL + "/complete")).willReturn(aResponse().withStatus(200)));
+    // the service no longer knows the interrupted upload
+    stubFor(put(urlMatching(format("/api/users/%s/upload/%s/chunks/%s", TEST_EMAIL, TEST_INSTANCE_ID, staleId)))
+        .willReturn(aResponse().withStatus(404)));
+
+    ClientResponse response = upload(bundle);
+
+    assertThat(response.getCode(), is(200));
+    verify(1, putRequestedFor(urlMatching(".*/chunks/" + staleId)));
+    verify(putRequestedFor(urlMatching(CHUNKS_URL)).withHeader("Content-Range", equalTo("bytes 0-4095/10000")));
+    verify(1, postRequestedFor(urlMatching(CHUNKS_URL + "/complete")));
+    verify(0, postRequestedFor(urlMatching(".*/chunks/" + staleId + "/complete")));
+    assertThat(ResumableUpload.checkpointFile(bundle).exists(), is(false));
+  }
+
+  @Test
+  public void rejectedUploadIsOnlyStartedOverOnce() throws Exception {
+    File bundle = createBundle(10000);
+    stubFor(put(urlMatching(CHUNKS_URL)).willReturn(aResponse().withStatus(404)));
+
+    ClientResponse response = upload(bundle);
+
+    assertThat(response.getCode(), is(404));
+    verify(2, putRequestedFor(urlMatching(CHUNKS_URL)));
+    verify(0, postRequestedFor(urlMatching(CHUNKS_URL + "/complete")));
+    assertThat(ResumableUpload.checkpointFile(bundle).exists(), is(false));
+  }
+
+  private static String uploadId(File bundle) throws IOException {
+    Properties checkpoint = new Properties();
+    try (InputStream in = new FileInputStream(ResumableUpload.checkpointFile(bundle))) {
+      checkpoint.load(in);
+    }
+    return checkpoint.getProperty("uploadId");
+  }
+
+  private ClientResponse upload(File bundle) throws IOException {
+    return new ResumableUpload(TEST_EMAIL, new ClientUploadRequest(TEST_INSTANCE_ID, bundle, null, "2.9"), CHUNK_SIZE).upload();
+  }
+
+  private File createBundle(int size) throws IOException {
+    byte[] content = new byte[size];
+    new Random(42).nextBytes(content);
+    File bundle = tmp.newFile("bundle.zip");
+    Files.write(bundle.toPath(), content);
+    return bundle;
+  }
+}
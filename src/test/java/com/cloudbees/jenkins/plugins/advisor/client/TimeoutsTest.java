@@ -0,0 +1,68 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimeoutsTest {
+
+  @Test
+  public void eachCallHasItsOwnProfile() throws Exception {
+    assertThat(Timeouts.healthCheck().getConnectMillis(), is((int) TimeUnit.SECONDS.toMillis(10)));
+    assertThat(Timeouts.healthCheck().getReadMillis(), is((int) TimeUnit.SECONDS.toMillis(30)));
+    assertThat(Timeouts.testEmail().getConnectMillis(), is((int) TimeUnit.SECONDS.toMillis(10)));
+    assertThat(Timeouts.testEmail().getReadMillis(), is((int) TimeUnit.SECONDS.toMillis(60)));
+    assertThat(Timeouts.upload().getConnectMillis(), is(AdvisorClientConfig.insightsUploadIdleTimeoutMilliseconds()));
+    assertThat(Timeouts.upload().getReadMillis(), is(AdvisorClientConfig.insightsUploadTimeoutMilliseconds()));
+  }
+
+  @Test
+  public void profilesAreConfigurable() throws Exception {
+    String key = "com.cloudbees.jenkins.plugins.advisor.client.AdvisorClientConfig.advisorHealthCheckReadTimeoutSeconds";
+    System.setProperty(key, "5");
+    try {
+      assertThat(Timeouts.healthCheck().getReadMillis(), is(5000));
+    } finally {
+      System.clearProperty(key);
+    }
+  }
+
+  @Test
+  public void aDistantDeadlineKeepsTheTimeouts() throws Exception {
+    Timeouts timeouts = new Timeouts(1000, 2000, Timeouts.NO_DEADLINE)
+        .withDeadline(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+
+    assertThat(timeouts.getConnectMillis(), is(1000));
+    assertThat(timeouts.getReadMillis(), is(2000));
+  }
+
+  @Test
+  public void theDeadlineCapsTheTimeouts() throws Exception {
+    Timeouts timeouts = new Timeouts(60000, 0, Timeouts.NO_DEADLINE)
+        .withDeadline(System.currentTimeMillis() + 5000);
+
+    assertTrue(timeouts.getConnectMillis() <= 5000);
+    // no timeout at all is capped as well
+    assertTrue(timeouts.getReadMillis() > 0 && timeouts.getReadMillis() <= 5000);
+  }
+
+  @Test
+  public void theEarlierDeadlineWins() throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    Timeouts timeouts = new Timeouts(1000, 1000, Timeouts.NO_DEADLINE).withDeadline(deadline);
+
+    assertThat(timeouts.withDeadline(deadline + 1000).getDeadline(), is(deadline));
+    assertThat(timeouts.withDeadline(Timeouts.NO_DEADLINE).getDeadline(), is(deadline));
+    assertThat(timeouts.withDeadline(deadline - 1000).getDeadline(), is(deadline - 1000));
+  }
+
+  @Test(expected = SocketTimeoutException.class)
+  public void noCallIsMadePastTheDeadline() throws Exception {
+    new Timeouts(1000, 1000, System.currentTimeMillis() - 1).getConnectMillis();
+  }
+}
@@ -0,0 +1,91 @@
+package com.cloudbees.jenkins.plugins.advisor.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class UploadWatchdogTest {
+
+  private final AtomicLong clock = new AtomicLong(1000);
+  private final AtomicInteger aborts = new AtomicInteger();
+  private final AtomicLong reported = new AtomicLong();
+
+  private UploadWatchdog watchdog(long expectedBytes, long timeoutMillis, long stallMillis) {
+    return new UploadWatchdog(reported::set, expectedBytes, timeoutMillis, stallMillis, aborts::incrementAndGet,
+        clock::get);
+  }
+
+  @Test
+  public void progressKeepsTheUploadGoing() {
+    UploadWatchdog subject = watchdog(1000, 60000, 10000);
+    for (int i = 1; i <= 10; i++) {
+      clock.addAndGet(5000);
+      subject.onBytesSent(i * 100);
+      subject.check();
+    }
+
+    assertThat(subject.getFailure(), is(nullValue()));
+    assertThat(aborts.get(), is(0));
+    assertThat(reported.get(), is(1000L));
+  }
+
+  @Test
+  public void aStalledUploadIsAborted() {
+    UploadWatchdog subject = watchdog(1000, 60000, 10000);
+    subject.onBytesSent(400);
+    clock.addAndGet(10001);
+    subject.check();
+    subject.check();
+
+    assertThat(subject.getFailure(), containsString("stalled at 400 of 1000 bytes"));
+    assertThat(aborts.get(), is(1));
+  }
+
+  @Test
+  public void theResponseIsNotAStall() {
+    UploadWatchdog subject = watchdog(1000, 60000, 10000);
+    subject.onBytesSent(1000);
+    clock.addAndGet(30000);
+    subject.check();
+
+    assertThat(subject.getFailure(), is(nullValue()));
+  }
+
+  @Test
+  public void aSlowUploadIsAbortedAtItsTimeout() {
+    UploadWatchdog subject = watchdog(1000, 60000, 10000);
+    for (int i = 1; i <= 7; i++) {
+      clock.addAndGet(9000);
+      subject.onBytesSent(i * 100);
+      subject.check();
+    }
+
+    assertThat(subject.getFailure(), containsString("did not complete within"));
+    assertThat(aborts.get(), is(1));
+  }
+
+  @Test
+  public void stallsAreNotDetectedWithoutAKnownSize() {
+    UploadWatchdog subject = watchdog(-1, 0, 10000);
+    clock.addAndGet(30000);
+    subject.check();
+
+    assertThat(subject.getFailure(), is(nullValue()));
+  }
+
+  @Test
+  public void aResumedUploadOnlyCountsTheBytesItSent() {
+    UploadWatchdog subject = watchdog(1000, 60000, 10000);
+    subject.onBytesSent(600);
+    subject.onBytesSent(800);
+    subject.onBytesSent(1000);
+
+    assertThat(subject.getBytesTransferred(), is(400L));
+  }
+}
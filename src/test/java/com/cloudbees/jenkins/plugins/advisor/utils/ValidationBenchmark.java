@@ -0,0 +1,58 @@
+package com.cloudbees.jenkins.plugins.advisor.utils;
+
+import hudson.util.FormValidation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the validation of the email and cc fields, which runs on every change of the configuration form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValidationBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Email {
+    @Param({"test@acme.com", "first.middle.last+advisor@sub.domain.example.org", "not-an-email@"})
+    public String email;
+  }
+
+  @State(Scope.Benchmark)
+  public static class Cc {
+    @Param({"1", "10"})
+    public int recipients;
+
+    private String cc;
+
+    @Setup
+    public void setUp() {
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < recipients; i++) {
+        if (i > 0) {
+          builder.append(',');
+        }
+        builder.append("user").append(i).append("@acme.com");
+      }
+      cc = builder.toString();
+    }
+  }
+
+  @Benchmark
+  public boolean emailValidator(Email state) {
+    return EmailValidator.getInstance().isValid(state.email);
+  }
+
+  @Benchmark
+  public Optional<FormValidation> validateCC(Cc state) {
+    return FormValidationHelper.validateCC(state.cc);
+  }
+}